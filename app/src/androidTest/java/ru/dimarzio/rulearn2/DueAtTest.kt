@@ -0,0 +1,64 @@
+package ru.dimarzio.rulearn2
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import ru.dimarzio.rulearn2.application.Database
+import ru.dimarzio.rulearn2.models.Word
+import kotlin.random.Random
+
+// The due_at index and Word.isRepeat must agree to the millisecond.
+@RunWith(AndroidJUnit4::class)
+class DueAtTest {
+    private val database = SQLiteDatabase.create(null)
+
+    @After
+    fun close() {
+        database.close()
+    }
+
+    @Test
+    fun sameAsWord_onRandomStats() {
+        val random = Random(42)
+        database.execSQL("CREATE TABLE stat(id INTEGER PRIMARY KEY, accessed INTEGER, skip INTEGER, rating INTEGER, success_rate REAL)")
+
+        val words = List(20_000) { id ->
+            id to Word(
+                accessed = 1L + random.nextLong(2_000_000_000_000L),
+                skip = random.nextInt(10) == 0,
+                rating = random.nextInt(8, Word.MAX_RATING + 1),
+                successRate = if (random.nextBoolean()) random.nextFloat() * 2 else 1f
+            )
+        }
+
+        database.beginTransaction()
+        words.forEach { (id, word) ->
+            database.execSQL(
+                "INSERT INTO stat VALUES (?, ?, ?, ?, ?)",
+                arrayOf(id, word.accessed, if (word.skip) 1 else 0, word.rating, word.successRate.toDouble())
+            )
+        }
+        database.setTransactionSuccessful()
+        database.endTransaction()
+
+        database.rawQuery("SELECT id, ${Database.DUE_AT} FROM stat ORDER BY id", null).use { cursor ->
+            words.forEach { (id, word) ->
+                assertTrue(cursor.moveToNext())
+                assertEquals(id, cursor.getInt(0))
+
+                val due = if (cursor.isNull(1)) Word.NEVER else cursor.getLong(1)
+                assertEquals(word.toString(), word.dueAt, due)
+
+                // At the boundary: due at dueAt, not a millisecond before.
+                if (due != Word.NEVER) {
+                    assertTrue(word.isRepeat(due))
+                    assertTrue(!word.isRepeat(due - 1))
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
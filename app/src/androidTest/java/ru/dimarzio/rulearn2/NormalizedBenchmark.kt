@@ -0,0 +1,79 @@
+package ru.dimarzio.rulearn2
+
+import android.os.Bundle
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.apache.commons.lang3.StringUtils
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import ru.dimarzio.rulearn2.utils.normalized
+import java.text.Normalizer
+import kotlin.random.Random
+
+/*
+ * The fold table normalizer against the one before it, on the device: warmed up, then the median of runs
+ * over the same words is reported as ns/op in the instrumentation results and in the log.
+ * Nothing is asserted on the timings, only that both give the same strings.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class NormalizedBenchmark {
+    // String.normalized() before the fold table.
+    private fun String.reference(): String = StringUtils.stripAccents(
+        Normalizer
+            .normalize(this, Normalizer.Form.NFKD)
+            .replace("\\p{Mn}+".toRegex(), "")
+            .trim()
+            .lowercase()
+    )
+
+    private val alphabet = (0x20..0x7E) + (0xA0..0x24F) + (0x300..0x36F) + (0x400..0x52F) +
+            (0x600..0x6FF) + (0x1E00..0x1EFF) + (0x2000..0x206F)
+
+    // Accented words as in a course, and plain ASCII ones that take the fast path.
+    private val words = Random(7).let { random ->
+        List(20_000) {
+            String(CharArray(1 + random.nextInt(16)) { alphabet[random.nextInt(alphabet.size)].toChar() })
+        } + List(20_000) { i -> "Word ${i % 100}" }
+    }
+
+    companion object {
+        private const val WARMUP = 5
+        private const val RUNS = 15
+    }
+
+    private fun median(normalize: (String) -> String): Long {
+        var sink = 0
+
+        repeat(WARMUP) {
+            words.forEach { word -> sink += normalize(word).length }
+        }
+
+        val times = List(RUNS) {
+            val start = System.nanoTime()
+            words.forEach { word -> sink += normalize(word).length }
+            (System.nanoTime() - start) / words.size
+        }
+
+        check(sink >= 0) // Keeps the results alive.
+        return times.sorted()[RUNS / 2]
+    }
+
+    @Test
+    fun normalized_againstReference() {
+        words.forEach { word -> assertEquals(word, word.reference(), word.normalized()) }
+
+        val reference = median { word -> word.reference() }
+        val normalized = median { word -> word.normalized() }
+
+        val results = Bundle().apply {
+            putLong("reference_ns_per_op", reference)
+            putLong("normalized_ns_per_op", normalized)
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results)
+        Log.i("NormalizedBenchmark", "reference: $reference ns/op, normalized: $normalized ns/op")
+    }
+}
\ No newline at end of file
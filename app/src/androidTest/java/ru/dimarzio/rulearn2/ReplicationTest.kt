@@ -0,0 +1,174 @@
+package ru.dimarzio.rulearn2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import ru.dimarzio.rulearn2.application.Database
+import ru.dimarzio.rulearn2.models.Word
+import java.io.File
+
+// Deltas between real databases, pulled the way P2PManager pulls them.
+@RunWith(AndroidJUnit4::class)
+class ReplicationTest {
+    private val root = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "replication")
+    private val databases = mutableListOf<Database>()
+
+    private lateinit var a: Database
+    private lateinit var b: Database
+    private lateinit var c: Database
+
+    private fun open(name: String) = Database(File(root, name).apply { mkdirs() }).also(databases::add)
+
+    @Before
+    fun open() {
+        root.deleteRecursively()
+        a = open("a")
+        b = open("b")
+        c = open("c")
+        b.createCourse(COURSE)
+    }
+
+    @After
+    fun close() {
+        databases.forEach(Database::close)
+        root.deleteRecursively()
+    }
+
+    companion object {
+        private const val COURSE = "en"
+    }
+
+    private fun word(accessed: Long, rating: Int) = Word(
+        name = "word",
+        translation = "translation",
+        audios = null,
+        level = "1",
+        accessed = accessed,
+        difficult = false,
+        skip = false,
+        rating = rating,
+        repetitions = rating,
+        correctAnswers = rating,
+        secondsLapsed = 0L,
+        typeRepeat = null,
+        hintsFraction = 0f,
+        successRate = 1f
+    )
+
+    // Rows sent, by table.
+    private fun pull(into: Database, from: Database): Map<String, List<List<String>>> {
+        val peer = from.device
+        val tables = linkedMapOf<String, MutableList<List<String>>>()
+        from.exportDelta(COURSE, into.getMark(peer, COURSE)) { table, row ->
+            tables.getOrPut(table, ::mutableListOf).add(row)
+        }
+
+        val folder = File(root, "delta").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+
+        Database(folder).use {
+            device = peer
+            tables.forEach { (table, rows) ->
+                createCourse(table)
+                importLines(table, rows.asSequence())
+            }
+        }
+
+        if (COURSE in tables) {
+            into.replicate(File(folder, Database.DB_NAME), listOf(COURSE))
+        }
+
+        return tables
+    }
+
+    private fun Database.rating(id: Int) = getWords(COURSE).getValue(id).rating
+    private fun Database.repetitions(id: Int) = getWords(COURSE).getValue(id).repetitions
+
+    private fun Map<String, List<List<String>>>.ids(table: String) = getValue(table).map { row -> row.first() }
+
+    @Test
+    fun unknownPeer_getsEveryRow() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10), 2 to word(2000L, 10)))
+        val tables = pull(a, b)
+
+        assertEquals(listOf(COURSE, "${COURSE}_stat", "${COURSE}_ml"), tables.keys.toList())
+        assertEquals(listOf("1", "2"), tables.ids(COURSE))
+        assertEquals(listOf("1", "2"), tables.ids("${COURSE}_stat"))
+        assertEquals(listOf("1", "2"), tables.ids("${COURSE}_ml"))
+    }
+
+    @Test
+    fun knownPeer_getsChangedAndNewRowsOnly() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10), 2 to word(2000L, 10)))
+        pull(a, b)
+
+        b.updateWord(COURSE, 2, word(2500L, 11))
+        b.updateWords(COURSE, mapOf(3 to word(3000L, 10)))
+        val tables = pull(a, b)
+
+        assertEquals(listOf("2", "3"), tables.ids(COURSE))
+        assertEquals(listOf("2", "3"), tables.ids("${COURSE}_stat"))
+        assertEquals(listOf("2", "3"), tables.ids("${COURSE}_ml"))
+        assertEquals(11, a.rating(2))
+        assertEquals(10, a.rating(3))
+    }
+
+    @Test
+    fun nothingChanged_sendsNothing() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10)))
+        pull(a, b)
+
+        assertTrue(pull(a, b).isEmpty())
+    }
+
+    @Test
+    fun olderAccessed_changedAfterSync_isReplicated() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10), 2 to word(2000L, 10)))
+        pull(a, b)
+        assertEquals(10, a.rating(1))
+
+        b.updateWord(COURSE, 1, word(500L, 12)) // Accessed picked back by the user
+        pull(a, b)
+
+        assertEquals(12, a.rating(1))
+        assertEquals(500L, a.getWords(COURSE).getValue(1).accessed)
+        assertEquals(12, a.getWords(COURSE).getValue(1).repetitions) // _ml follows its stat row
+    }
+
+    @Test
+    fun mergedFromThirdPeer_isReplicatedFurther() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10), 2 to word(2000L, 10)))
+        pull(a, b)
+        pull(c, a)
+
+        b.updateWord(COURSE, 1, word(500L, 12))
+        pull(a, b)
+        pull(c, a) // The row came to a with an old accessed, but is new to c.
+
+        assertEquals(12, c.rating(1))
+    }
+
+    @Test
+    fun changedOnBothSides_newerAccessedWins() {
+        b.updateWords(COURSE, mapOf(1 to word(1000L, 10), 2 to word(2000L, 10)))
+        pull(a, b)
+
+        a.updateWord(COURSE, 1, word(3000L, 13))
+        b.updateWord(COURSE, 1, word(2500L, 11))
+        a.updateWord(COURSE, 2, word(2100L, 11))
+        b.updateWord(COURSE, 2, word(2200L, 14))
+        pull(a, b)
+
+        assertEquals(13, a.rating(1))
+        assertEquals(14, a.rating(2))
+        assertEquals(13, a.repetitions(1)) // _ml stays with the kept stat row
+        assertEquals(14, a.repetitions(2))
+    }
+}
\ No newline at end of file
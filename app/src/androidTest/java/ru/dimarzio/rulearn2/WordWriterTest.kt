@@ -0,0 +1,133 @@
+package ru.dimarzio.rulearn2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import ru.dimarzio.rulearn2.application.Database
+import ru.dimarzio.rulearn2.application.WordWriter
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
+import java.io.File
+import java.io.RandomAccessFile
+
+// Journals left by a writer which could not save, replayed the way the next process does: when its database opens.
+@RunWith(AndroidJUnit4::class)
+class WordWriterTest {
+    private val root = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "writer")
+    private val journals = File(root, "journals")
+    private val journal = WordWriter.journal(journals, root, COURSE)
+    private val errors = mutableListOf<Throwable>()
+
+    private lateinit var database: Database
+
+    @Before
+    fun open() {
+        root.deleteRecursively()
+        journals.mkdirs()
+        database = Database(root) // This process, which replays nothing
+    }
+
+    @After
+    fun close() {
+        database.close()
+        root.deleteRecursively()
+    }
+
+    companion object {
+        private const val COURSE = "en"
+    }
+
+    private fun word(rating: Int, audios: List<File>? = null) = Word(
+        name = "word$rating",
+        translation = "translation",
+        audios = audios,
+        level = "1",
+        accessed = 1000L * rating,
+        difficult = rating % 2 == 0,
+        skip = false,
+        rating = rating,
+        repetitions = rating,
+        correctAnswers = rating - 1,
+        secondsLapsed = 60L,
+        typeRepeat = Session.entries.first(),
+        hintsFraction = 0.5f,
+        successRate = 0.75f
+    )
+
+    // The course does not exist yet, so every batch fails and stays in the journal.
+    private fun journal(vararg words: Pair<Int, Word>, changes: WordWriter.() -> Unit = {}) {
+        val writer = WordWriter(database, COURSE, journal, errors::add)
+        words.forEach { (id, word) -> writer.enqueue(id, word) }
+        writer.changes()
+        writer.close()
+        assertTrue(writer.awaitClosed())
+
+        assertTrue(errors.isNotEmpty())
+        assertTrue(journal.exists())
+    }
+
+    private fun replay() = WordWriter(database, COURSE, journal) { e -> throw e }.use { writer -> writer.read() }
+
+    private fun replayedWords() = (replay().single() as WordWriter.Change.Words).words
+
+    // The next process, its database replays the journals when it opens.
+    private fun recover() {
+        database.close()
+        database = Database(root, journals)
+        database.recover()
+    }
+
+    @Test
+    fun recover_savesJournaledWords() {
+        journal(1 to word(10), 2 to word(11), 1 to word(12))
+        database.createCourse(COURSE)
+
+        recover()
+
+        val words = database.getWords(COURSE)
+        assertEquals(setOf(1, 2), words.keys)
+        assertEquals(12, words.getValue(1).rating) // Latest update wins
+        assertEquals(11, words.getValue(2).rating)
+        assertFalse(journal.exists())
+    }
+
+    @Test
+    fun recover_keepsOrderOfChanges() {
+        journal(1 to word(10), 2 to word(11)) {
+            deleteWord(1)
+            renameLevel("1", "2")
+            enqueue(3, word(12))
+        }
+        database.createCourse(COURSE)
+
+        recover()
+
+        val words = database.getWords(COURSE)
+        assertEquals(setOf(2, 3), words.keys)
+        assertEquals("2", words.getValue(2).level) // Renamed after it was saved
+        assertEquals("1", words.getValue(3).level) // Saved after the rename
+        assertFalse(journal.exists())
+    }
+
+    @Test
+    fun journal_keepsEveryField() {
+        val word = word(13, listOf(File("a, b.mp3"), File("c.mp3"))) // Names may have the old separator
+        journal(7 to word, 8 to word(14))
+
+        assertEquals(mapOf(7 to word, 8 to word(14)), replayedWords())
+    }
+
+    @Test
+    fun recordCutShort_isDropped() {
+        journal(1 to word(10), 2 to word(11))
+        RandomAccessFile(journal, "rw").use { file -> file.setLength(file.length() - 3) }
+
+        assertEquals(mapOf(1 to word(10)), replayedWords())
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+package ru.dimarzio.rulearn2.application
+
+import ru.dimarzio.rulearn2.models.Course
+import ru.dimarzio.rulearn2.utils.writeAtomically
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/*
+ * The courses as they were last shown, so that the courses screen is drawn before the database is read.
+ * Only a hint: whatever is read from it is reconciled with the database afterwards.
+ */
+class CourseSnapshot(private val file: File) {
+    companion object {
+        private const val VERSION = 1
+    }
+
+    // Empty if there is no snapshot yet or it is of another version.
+    fun read(): Map<String, Course> = buildMap {
+        if (!file.exists()) {
+            return@buildMap
+        }
+
+        DataInputStream(BufferedInputStream(file.inputStream())).use { input ->
+            if (input.readInt() != VERSION) {
+                return@buildMap
+            }
+
+            repeat(input.readInt()) {
+                val name = input.readUTF()
+                this[name] = Course(
+                    icon = if (input.readBoolean()) File(input.readUTF()) else null,
+                    total = input.readInt(),
+                    learned = input.readInt(),
+                    repeat = input.readInt()
+                )
+            }
+        }
+    }
+
+    fun write(courses: Map<String, Course>) {
+        val bytes = ByteArrayOutputStream()
+
+        DataOutputStream(bytes).use { output ->
+            output.writeInt(VERSION)
+            output.writeInt(courses.size)
+
+            courses.forEach { (name, course) ->
+                output.writeUTF(name)
+                output.writeBoolean(course.icon != null)
+                course.icon?.let { icon -> output.writeUTF(icon.path) }
+                output.writeInt(course.total)
+                output.writeInt(course.learned)
+                output.writeInt(course.repeat)
+            }
+        }
+
+        file.writeAtomically(ByteArrayInputStream(bytes.toByteArray()))
+    }
+}
\ No newline at end of file
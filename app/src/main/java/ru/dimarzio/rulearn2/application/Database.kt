@@ -3,51 +3,290 @@ package ru.dimarzio.rulearn2.application
 import android.content.ContentValues
 import android.content.res.AssetManager
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
 import androidx.core.database.getIntOrNull
 import androidx.core.database.getStringOrNull
 import ru.dimarzio.rulearn2.models.Course
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.tflite.ModelFactory
 import ru.dimarzio.rulearn2.utils.ImageFile
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
 import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.stream.Collectors
 
 /*
 * Not singleton!
 * Note: It is caller's responsibility to catch all exceptions
  */
 
-class Database(private val folder: File) : AutoCloseable { // Not singleton!
-    private val database: SQLiteDatabase by lazy {
-        SQLiteDatabase.openOrCreateDatabase(File(folder, DB_NAME), null).apply {
-            setForeignKeyConstraintsEnabled(true)
+// journals: folder of the WordWriter journals, replayed when the writer first opens; none for a second instance.
+class Database(private val folder: File, private val journals: File? = null) : AutoCloseable { // Not singleton!
+    private val readers = ArrayBlockingQueue<SQLiteDatabase>(READERS) // Idle ones
+    private var opened = 0 // Readers open, guarded by readers
+
+    @Volatile
+    private var writer: SQLiteDatabase? = null
+
+    @Volatile
+    private var catalog: Catalog? = null
+
+    @Volatile
+    private var recovered = journals == null
+
+    /*
+     * The only connection that writes; opened again after close.
+     * Other threads wait for the journals to be replayed, which is done through it.
+     */
+    private val database: SQLiteDatabase
+        get() = writer?.takeIf { recovered } ?: synchronized(readers) {
+            writer ?: SQLiteDatabase.openOrCreateDatabase(File(folder, DB_NAME), null).apply {
+                setForeignKeyConstraintsEnabled(true)
+                enableWal()
+                execSQL("PRAGMA synchronous = NORMAL") // Enough in WAL mode, a commit is not synced.
+
+                // Identifies this database to the peers it is replicated to.
+                execSQL("CREATE TABLE IF NOT EXISTS device(id TEXT PRIMARY KEY)")
+                if (DatabaseUtils.queryNumEntries(this, "device") == 0L) { // Not to wait for a write lock
+                    execSQL("INSERT INTO device SELECT hex(randomblob(16)) WHERE NOT EXISTS (SELECT 1 FROM device)")
+                }
+
+                // Last version given to a changed stat row, see createTriggers.
+                execSQL("CREATE TABLE IF NOT EXISTS stat_version(value INTEGER)")
+                if (DatabaseUtils.queryNumEntries(this, "stat_version") == 0L) {
+                    execSQL("INSERT INTO stat_version SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM stat_version)")
+                }
+
+                val version = DatabaseUtils.longForQuery(this, "PRAGMA user_version", null)
+
+                // due_at saved before it was rounded up as Word.dueAt rounds it is computed once again.
+                if (version < DUE_ROUNDED) {
+                    val stats = rawQuery(
+                        "SELECT m.name FROM sqlite_master m, pragma_table_info(m.name) c " +
+                                "WHERE m.type = 'table' AND c.name = 'due_at'",
+                        null
+                    ).use { cursor -> List(cursor.count) { cursor.moveToNext(); cursor.getString(0) } }
+
+                    beginTransaction()
+                    try {
+                        stats.forEach { stat -> execSQL("UPDATE '$stat' SET due_at = $DUE_AT") }
+                        execSQL("PRAGMA user_version = $DUE_ROUNDED")
+                        setTransactionSuccessful()
+                    } finally {
+                        endTransaction()
+                    }
+                }
+
+                // Marks of the peers by the versions of the rows, which replace the marks by accessed.
+                if (version < MARKS) {
+                    beginTransaction()
+                    try {
+                        execSQL("DROP TABLE IF EXISTS replication")
+                        execSQL(
+                            "CREATE TABLE IF NOT EXISTS marks(" +
+                                    "peer TEXT, " +
+                                    "course TEXT, " +
+                                    "id INTEGER DEFAULT 0, " +
+                                    "modified INTEGER DEFAULT 0, " +
+                                    "local INTEGER DEFAULT 0, " +
+                                    "PRIMARY KEY(peer, course))"
+                        )
+                        execSQL("PRAGMA user_version = $MARKS")
+                        setTransactionSuccessful()
+                    } finally {
+                        endTransaction()
+                    }
+                }
+            }.also { database ->
+                writer = database
+                replayJournals()
+            }
+        }
+
+    // Once, not after a reopen: an import may have replaced the file since.
+    private fun replayJournals() {
+        if (!recovered) {
+            try {
+                journals?.let { journals -> WordWriter.recover(this, journals, folder) }
+            } finally {
+                recovered = true
+            }
         }
     }
 
+    // Opens the writer, so the journals are replayed; blocking, call before reading the words.
+    fun recover() {
+        database
+    }
+
     private val models = ModelFactory
 
-    val path get() = File(database.path)
+    // Checkpointed first, so that the file holds all that is committed.
+    val path: File
+        get() {
+            checkpoint()
+            return File(database.path)
+        }
+
     var lastlyAttached: File? = null
 
-    val courses get() = getCoursesNames().associateWith(::getCourse)
+    /*
+     * The icons folder is listed once instead of looking up every icon,
+     * the stats of the courses are counted in parallel on the readers.
+     */
+    val courses: Map<String, Course>
+        get() {
+            val names = getCoursesNames()
+            names.forEach { name -> migrateDue(name + "_stat") } // On the writer, one by one
+
+            val icons = File(folder, "icons")
+            val files = icons.list().orEmpty().toHashSet()
+
+            val stats = names
+                .parallelStream()
+                .map { name -> getCourse(name, ImageFile(icons, name, files)) }
+                .collect(Collectors.toList())
+
+            return names.zip(stats).toMap()
+        }
+
+    private val migrated: MutableSet<String> = ConcurrentHashMap.newKeySet() // _stat tables known to have due_at and indexes
+    private val statements = HashMap<String, SQLiteStatement>()
 
     companion object {
-        private const val MS = 3600000.0
+        private const val IMPORT_BATCH = 1000
+        private const val READERS = 3
+        private const val DUE_ROUNDED = 1 // user_version
+        private const val MARKS = 2
+
+        // Mirrors Word.repeatInterval term by term, so that the same doubles are rounded up the same way.
+        private const val INTERVAL = "(CASE rating " +
+                "WHEN 10 THEN 1 * success_rate * 3600000.0 " +
+                "WHEN 11 THEN 5 * success_rate * 3600000.0 " +
+                "WHEN 12 THEN 1 * success_rate * 86400000.0 " +
+                "WHEN 13 THEN 5 * success_rate * 86400000.0 " +
+                "WHEN 14 THEN 25 * success_rate * 86400000.0 " +
+                "WHEN 15 THEN 4 * success_rate * 30 * 86400000.0 END)"
+
+        // accessed + interval, rounded up to millis as SQLite of API 26 has no CEIL; NULL if never due.
+        internal const val DUE_AT = "CASE WHEN skip = 0 THEN accessed + " +
+                "CAST($INTERVAL AS INTEGER) + ($INTERVAL > CAST($INTERVAL AS INTEGER)) END"
 
         const val MASTER = "main"
         const val SLAVE = "slave"
 
         const val DB_NAME = "rulearn.db"
+
+        private val COURSE_COLUMNS = listOf("id", "word", "translation", "audio", "level")
+    }
+
+    private inline fun <R> query(sql: String, connection: SQLiteDatabase = database, block: Cursor.() -> R): R {
+        return connection.rawQuery(sql, null).use(block)
     }
 
-    private inline fun <R> query(sql: String, block: Cursor.() -> R): R {
-        return database.rawQuery(sql, null).use(block)
+    /*
+     * Not enableWriteAheadLogging: Android turns it off for good on ATTACH, which replication runs.
+     * The mode is kept in the file, so readers opened later are in WAL mode as well.
+     */
+    private fun SQLiteDatabase.enableWal() {
+        rawQuery("PRAGMA journal_mode = WAL", null).use(Cursor::moveToFirst)
+    }
+
+    /*
+     * Runs block on an idle read-only connection, opening up to READERS of them, else waits for one.
+     * In WAL mode they read the last commit while the writer imports or replicates.
+     * Not to be nested: close waits for all the readers to be returned.
+     */
+    private inline fun <R> read(block: (reader: SQLiteDatabase) -> R): R {
+        val reader = readers.poll() ?: synchronized(readers) {
+            if (opened < READERS) {
+                val file = File(folder, DB_NAME)
+                if (!file.exists()) {
+                    database // Creates the file in WAL mode.
+                }
+                SQLiteDatabase.openDatabase(file.path, null, SQLiteDatabase.OPEN_READONLY).also { opened++ }
+            } else {
+                null
+            }
+        } ?: readers.take()
+
+        try {
+            return block(reader)
+        } finally {
+            readers.put(reader)
+        }
+    }
+
+    // Compiled once per SQL on this connection; closed when the tables they refer to are dropped or renamed.
+    private fun statement(sql: String) = synchronized(statements) {
+        statements.getOrPut(sql) { database.compileStatement(sql) }
+    }
+
+    private fun closeStatements() = synchronized(statements) {
+        statements.values.forEach(SQLiteStatement::close)
+        statements.clear()
+    }
+
+    /*
+     * UPDATE, then INSERT if there was no row with the id, which goes first in values.
+     * Null values leave the column as it is, like the skipped nulls of toContentValues.
+     * SQLite of API 26 has no ON CONFLICT DO UPDATE, and INSERT OR REPLACE would delete the row,
+     * cascading to _stat and _ml.
+     */
+    private fun upsert(table: String, values: List<Pair<String, Any?>>) {
+        val (idColumn, id) = values.first()
+        val rest = values.drop(1)
+
+        val update = statement(
+            "UPDATE '$table' SET ${rest.joinToString { (name, _) -> "$name = COALESCE(?, $name)" }} " +
+                    "WHERE $idColumn = ?"
+        )
+
+        update.clearBindings()
+        rest.forEachIndexed { i, (_, value) -> update.bind(i + 1, value) }
+        update.bind(values.size, id)
+
+        if (update.executeUpdateDelete() == 0) {
+            val insert = statement(
+                "INSERT INTO '$table' (${values.joinToString { (name, _) -> name }}) " +
+                        "VALUES (${values.joinToString { "?" }})"
+            )
+
+            insert.clearBindings()
+            values.forEachIndexed { i, (_, value) -> insert.bind(i + 1, value) }
+            insert.executeInsert()
+        }
+    }
+
+    private inline fun <R> transaction(block: () -> R): R {
+        database.beginTransaction()
+        try {
+            return block().also { database.setTransactionSuccessful() }
+        } finally {
+            database.endTransaction()
+        }
     }
 
-    private fun updateOrInsert(table: String, values: Map<String, *>, whereClause: String) {
-        if (database.update("'$table'", values.toContentValues(), whereClause, null) == 0) {
-            database.insertOrThrow("'$table'", null, values.toContentValues())
+    // Changes made by several calls committed at once, or none of them.
+    fun <R> atomically(block: () -> R): R = transaction(block)
+
+    private fun SQLiteStatement.bind(index: Int, value: Any?) {
+        when (value) {
+            is String -> bindString(index, value)
+            is Byte -> bindLong(index, value.toLong())
+            is Short -> bindLong(index, value.toLong())
+            is Int -> bindLong(index, value.toLong())
+            is Long -> bindLong(index, value)
+            is Float -> bindDouble(index, value.toDouble())
+            is Double -> bindDouble(index, value)
+            is Boolean -> bindLong(index, if (value) 1 else 0)
+            is ByteArray -> bindBlob(index, value)
+            null -> bindNull(index)
+            else -> bindString(index, value.toString())
         }
     }
 
@@ -71,87 +310,218 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         }
     }
 
-    private fun columnsExist(table: String, vararg columns: String?): Boolean {
-        query("SELECT * FROM $table LIMIT 0") {
-            columns.forEach { column ->
-                if (getColumnIndex(column) == -1) {
-                    return false
+    /*
+     * Columns of every table and names of the indexes and triggers of db, read in one pass over pragma_table_info.
+     * The catalog of MASTER is kept till the schema version changes, that is till DDL runs on any connection.
+     * Not kept when read inside a transaction, which may yet roll its DDL back.
+     */
+    private fun catalog(db: String, connection: SQLiteDatabase): Catalog {
+        val version = query("PRAGMA $db.schema_version", connection) {
+            moveToFirst()
+            getInt(0)
+        }
+
+        val cached = catalog
+        if (db == MASTER && cached != null && cached.version == version) {
+            return cached
+        }
+
+        val tables = LinkedHashMap<String, MutableSet<String>>() // In the order of sqlite_master
+        query(
+            "SELECT m.name, c.name " +
+                    "FROM $db.sqlite_master m, pragma_table_info(m.name, '$db') c " +
+                    "WHERE m.type = 'table' " +
+                    "ORDER BY m.rowid, c.cid",
+            connection
+        ) {
+            while (moveToNext()) {
+                tables.getOrPut(getString(0), ::HashSet).add(getString(1).lowercase())
+            }
+        }
+
+        val indexes = query("SELECT name FROM $db.sqlite_master WHERE type IN ('index', 'trigger')", connection) {
+            HashSet<String>().apply {
+                while (moveToNext()) {
+                    add(getString(0))
                 }
             }
         }
-        return true
+
+        return Catalog(version, tables, indexes).also { catalog ->
+            if (db == MASTER && !connection.inTransaction()) {
+                this.catalog = catalog
+            }
+        }
+    }
+
+    private class Catalog(
+        val version: Int,
+        val tables: Map<String, Set<String>>,
+        val indexes: Set<String> // And triggers
+    ) {
+        val courses = tables.filterValues { columns -> columns.containsAll(COURSE_COLUMNS) }.keys.toList()
+    }
+
+    // On a reader, so reads never open nor wait for the writer; but only the writer sees the DDL of its transaction.
+    private fun catalog(): Catalog {
+        val writer = writer
+        return if (writer != null && writer.inTransaction()) {
+            catalog(MASTER, writer)
+        } else {
+            read { reader -> catalog(MASTER, reader) }
+        }
     }
 
     private fun createTable(name: String, vararg columns: String) {
         return database.execSQL("CREATE TABLE IF NOT EXISTS'$name'(${columns.joinToString(", ")})")
     }
 
+    private fun createIndexes(stat: String) {
+        database.execSQL("CREATE INDEX IF NOT EXISTS '${stat}_due' ON '$stat'(due_at)")
+        database.execSQL("CREATE INDEX IF NOT EXISTS '${stat}_accessed' ON '$stat'(accessed)")
+        database.execSQL("CREATE INDEX IF NOT EXISTS '${stat}_modified' ON '$stat'(modified)")
+    }
+
+    /*
+     * Every row written gets the next version of the database in modified, which peers sync against.
+     * Unlike accessed, it only grows: it is not edited by the user, nor copied from a peer.
+     * Rows inserted with modified given, as into a delta, keep it.
+     */
+    private fun createTriggers(stat: String) {
+        val bump = "UPDATE stat_version SET value = value + 1; " +
+                "UPDATE '$stat' SET modified = (SELECT value FROM stat_version) WHERE id = NEW.id;"
+
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS '${stat}_inserted' AFTER INSERT ON '$stat' " +
+                    "WHEN NEW.modified IS NULL BEGIN $bump END"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS '${stat}_updated' " +
+                    "AFTER UPDATE OF accessed, skip, difficult, rating, success_rate ON '$stat' BEGIN $bump END"
+        )
+    }
+
+    private fun dropIndexesAndTriggers(stat: String) {
+        listOf("due", "accessed", "modified").forEach { index ->
+            database.execSQL("DROP INDEX IF EXISTS '${stat}_$index'")
+        }
+        listOf("inserted", "updated").forEach { trigger ->
+            database.execSQL("DROP TRIGGER IF EXISTS '${stat}_$trigger'")
+        }
+    }
+
+    // Recomputes due_at of the rows matching whereClause (all rows by default).
+    private fun updateDue(stat: String, whereClause: String = "1") {
+        database.execSQL("UPDATE '$stat' SET due_at = $DUE_AT WHERE $whereClause")
+    }
+
+    /*
+     * Databases created before due_at or modified existed get the columns, the indexes and triggers once.
+     * Rows from before have no modified, they are synced as before: when newer by id or accessed.
+     */
+    private fun migrateDue(stat: String) {
+        if (stat !in migrated) {
+            val catalog = catalog()
+            val columns = catalog.tables[stat].orEmpty()
+
+            if ("due_at" !in columns) {
+                database.execSQL("ALTER TABLE '$stat' ADD COLUMN due_at INTEGER")
+                updateDue(stat)
+            }
+            if ("modified" !in columns) {
+                database.execSQL("ALTER TABLE '$stat' ADD COLUMN modified INTEGER")
+            }
+
+            val objects = listOf("due", "accessed", "modified", "inserted", "updated")
+            if (objects.any { name -> "${stat}_$name" !in catalog.indexes }) {
+                createIndexes(stat)
+                createTriggers(stat)
+            }
+
+            migrated.add(stat)
+        }
+    }
+
     fun rawQuery(sql: String) {
         database.execSQL(sql)
     }
 
-    fun <R> use(block: Database.() -> R) = database.use { block() }
+    fun <R> use(block: Database.() -> R): R {
+        try {
+            return block()
+        } finally {
+            close()
+        }
+    }
+
+    // Copies what is in the WAL into the database file and empties the WAL.
+    fun checkpoint() {
+        database.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null).use(Cursor::moveToFirst)
+    }
 
-    fun getCourse(name: String): Course {
+    /*
+     * Lets block replace the database file: it is checkpointed and all the connections are closed,
+     * so that neither they nor the WAL refer to the old one. The next call opens the new file.
+     */
+    fun replace(block: (file: File) -> Unit) = synchronized(readers) {
+        val file = path
+        close()
+        block(file)
+    }
+
+    fun getCourse(name: String) = getCourse(name, ImageFile("$folder/icons/$name"))
+
+    // Range of the due index, stat rows without their word are not counted.
+    private fun repeatCount(course: String, millis: Long) =
+        "SELECT COUNT(*) FROM '${course}_stat' s " +
+                "WHERE s.due_at <= $millis AND EXISTS (SELECT 1 FROM '$course' c WHERE c.id = s.id)"
+
+    private fun getCourse(name: String, icon: File?): Course {
         val millis = System.currentTimeMillis()
 
         val stat = name + "_stat"
 
-        val repeat = "skip = 0 AND " +
-                "((rating = 10 AND (($millis - accessed) / $MS) >= 1 * success_rate) OR " +
-                "(rating = 11 AND (($millis - accessed) / $MS) >= 5 * success_rate) OR " +
-                "(rating = 12 AND (($millis - accessed) / $MS) >= 24 * success_rate) OR " +
-                "(rating = 13 AND (($millis - accessed) / $MS) >= 120 * success_rate) OR " +
-                "(rating = 14 AND (($millis - accessed) / $MS) >= 600 * success_rate) OR " +
-                "(rating = 15 AND (($millis - accessed) / $MS) >= 2880 * success_rate))"
-
-        return query(
-            "SELECT " +
-                    "SUM(skip = 0 OR skip IS NULL), " +
-                    "SUM(rating >= 10 AND skip = 0), " +
-                    "SUM($repeat) " +
-                    "FROM '$name' " +
-                    "LEFT JOIN '$stat' ON '$name'.id = '$stat'.id"
-        ) {
-            moveToFirst()
-            Course(
-                icon = ImageFile("$folder/icons/$name"),
-                total = getInt(0),
-                learned = getInt(1),
-                repeat = getInt(2)
-            )
+        migrateDue(stat)
+
+        return read { reader ->
+            query(
+                "SELECT " +
+                        "SUM(skip = 0 OR skip IS NULL), " +
+                        "SUM(rating >= 10 AND skip = 0), " +
+                        "(${repeatCount(name, millis)}) " +
+                        "FROM '$name' " +
+                        "LEFT JOIN '$stat' ON '$name'.id = '$stat'.id",
+                reader
+            ) {
+                moveToFirst()
+                Course(
+                    icon = icon,
+                    total = getInt(0),
+                    learned = getInt(1),
+                    repeat = getInt(2)
+                )
+            }
         }
     }
 
     fun getRepeatWords(course: String): Int {
         val millis = System.currentTimeMillis()
 
-        return query(
-            "SELECT COUNT(*) FROM '${course}_stat' " +
-                    "WHERE skip = 0 AND " +
-                    "((rating = 10 AND (($millis - accessed) / $MS) >= 1 * success_rate) OR " +
-                    "(rating = 11 AND (($millis - accessed) / $MS) >= 5 * success_rate) OR " +
-                    "(rating = 12 AND (($millis - accessed) / $MS) >= 24 * success_rate) OR " +
-                    "(rating = 13 AND (($millis - accessed) / $MS) >= 120 * success_rate) OR " +
-                    "(rating = 14 AND (($millis - accessed) / $MS) >= 600 * success_rate) OR " +
-                    "(rating = 15 AND (($millis - accessed) / $MS) >= 2880 * success_rate))"
-        ) {
-            moveToFirst()
-            getInt(0)
-        }
-    }
+        val stat = course + "_stat"
 
-    fun getCoursesNames(db: String = MASTER): List<String> {
-        val tables = query("SELECT name FROM $db.sqlite_master WHERE type = 'table'") {
-            List(count) {
-                moveToNext()
-                getString(0)
+        migrateDue(stat)
+
+        return read { reader ->
+            query(repeatCount(course, millis), reader) {
+                moveToFirst()
+                getInt(0)
             }
         }
+    }
 
-        return tables.filter { table ->
-            columnsExist("$db.'$table'", "id", "word", "translation", "audio", "level")
-        }
+    // Attached databases are only seen by the writer.
+    fun getCoursesNames(db: String = MASTER): List<String> {
+        return if (db == MASTER) catalog().courses else catalog(db, database).courses
     }
 
     fun createCourse(name: String) { // Do NOT change the logic.
@@ -178,8 +548,12 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
                 "skip INTEGER DEFAULT 0",
                 "difficult INTEGER DEFAULT 0",
                 "rating INTEGER DEFAULT 0",
-                "success_rate REAL DEFAULT 1.0"
+                "success_rate REAL DEFAULT 1.0",
+                "due_at INTEGER",
+                "modified INTEGER"
             )
+            createIndexes(course + "_stat")
+            createTriggers(course + "_stat")
         }
 
         if (name == course) {
@@ -196,6 +570,7 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
 
     fun deleteCourse(name: String) { // Do NOT change the logic.
         val course = name.removeSuffix("_stat").removeSuffix("_ml")
+        closeStatements()
 
         if (!name.endsWith("_stat")) {
             database.execSQL("DROP TABLE IF EXISTS'${course}_ml'")
@@ -203,6 +578,7 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
 
         if (!name.endsWith("_ml")) {
             database.execSQL("DROP TABLE IF EXISTS'${course}_stat'")
+            migrated.remove(course + "_stat")
         }
 
         if (name == course) {
@@ -211,60 +587,153 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
     }
 
     fun renameCourse(from: String, to: String) {
+        closeStatements()
+
+        // Before SQLite 3.25, RENAME leaves the old table name in the trigger bodies.
+        dropIndexesAndTriggers(from + "_stat")
+
         database.execSQL("ALTER TABLE '$from' RENAME TO '$to'")
         database.execSQL("ALTER TABLE '${from}_stat' RENAME TO '${to}_stat'")
         database.execSQL("ALTER TABLE '${from}_ml' RENAME TO '${to}_ml'")
+
+        migrated.remove(from + "_stat")
+        migrateDue(to + "_stat")
     }
 
-    fun importLines(course: String, lines: List<List<String>>) = lines.forEach { line ->
-        val content = when {
-            course.endsWith("_stat") -> mapOf(
-                "id" to line[0].toIntOrNull(),
-                "accessed" to line[1].toLongOrNull(),
-                "skip" to line[2].toIntOrNull(),
-                "difficult" to line[3].toIntOrNull(),
-                "rating" to line[4].toIntOrNull(),
-                "success_rate" to line[5].toFloatOrNull()
+    /*
+     * Rows are bound into one compiled statement and committed per batch of lines;
+     * onBatch is called after every commit. Like SQLiteDatabase.insert, rows that fail are skipped.
+     */
+    fun importLines(
+        course: String,
+        lines: Sequence<List<String>>,
+        batch: Int = IMPORT_BATCH,
+        onBatch: () -> Unit = {}
+    ) {
+        val columns = when { // Name to default, which replaces empty values.
+            course.endsWith("_stat") -> listOf(
+                "id" to null,
+                "accessed" to "0",
+                "skip" to "0",
+                "difficult" to "0",
+                "rating" to "0",
+                "success_rate" to "1.0",
+                "modified" to null // Only in deltas
             )
 
-            course.endsWith("_ml") -> mapOf(
-                "id" to line[0].toIntOrNull(),
-                "n_repeat" to line[1].toIntOrNull(),
-                "sum_correct" to line[2].toIntOrNull(),
-                "cur_rating" to line[3].toIntOrNull(),
-                "s_lapsed" to line[4].toIntOrNull(),
-                "type_repeat" to line[5].toIntOrNull(),
-                "hint_frac" to line[6].toFloatOrNull()
+            course.endsWith("_ml") -> listOf(
+                "id" to null,
+                "n_repeat" to "0",
+                "sum_correct" to "0",
+                "cur_rating" to "0",
+                "s_lapsed" to "0",
+                "type_repeat" to null,
+                "hint_frac" to "0.0"
             )
 
-            else -> mapOf(
-                "id" to line[0].takeIf { id -> id.isNotBlank() },
-                "word" to line[1],
-                "translation" to line[2],
-                "audio" to line[3],
-                "level" to line[4]
+            else -> listOf(
+                "id" to null,
+                "word" to null,
+                "translation" to null,
+                "audio" to null,
+                "level" to null
             )
         }
 
-        database.insert("'$course'", null, content.toContentValues())
+        val names = columns.joinToString { (name, _) -> name }
+        val values = columns.joinToString { (_, default) ->
+            if (default != null) "COALESCE(?, $default)" else "?"
+        }
+
+        database.compileStatement("INSERT INTO '$course' ($names) VALUES ($values)").use { statement ->
+            lines.chunked(batch).forEach { chunk ->
+                transaction {
+                    chunk.forEach { line ->
+                        val content = when {
+                            course.endsWith("_stat") -> listOf(
+                                line[0].toIntOrNull(),
+                                line[1].toLongOrNull(),
+                                line[2].toIntOrNull(),
+                                line[3].toIntOrNull(),
+                                line[4].toIntOrNull(),
+                                line[5].toFloatOrNull(),
+                                line.getOrNull(6)?.toLongOrNull()
+                            )
+
+                            course.endsWith("_ml") -> listOf(
+                                line[0].toIntOrNull(),
+                                line[1].toIntOrNull(),
+                                line[2].toIntOrNull(),
+                                line[3].toIntOrNull(),
+                                line[4].toIntOrNull(),
+                                line[5].toIntOrNull(),
+                                line[6].toFloatOrNull()
+                            )
+
+                            else -> listOf(
+                                line[0].takeIf { id -> id.isNotBlank() },
+                                line[1],
+                                line[2],
+                                line[3],
+                                line[4]
+                            )
+                        }
+
+                        statement.clearBindings()
+                        content.forEachIndexed { i, value -> statement.bind(i + 1, value) }
+
+                        runCatching { statement.executeInsert() }
+                    }
+                }
+
+                onBatch()
+            }
+        }
+
+        if (course.endsWith("_stat")) {
+            updateDue(course)
+        }
     }
 
-    fun exportTable(course: String): List<List<String?>> {
+    /*
+     * Rows are handed to onRow as they are read from the cursor, together with their index
+     * and the total number of rows.
+     */
+    fun exportTable(
+        course: String,
+        whereClause: String = "1",
+        onRow: (row: List<String>, index: Int, total: Int) -> Unit
+    ) = exportTable(course, whereClause, false, onRow)
+
+    // The version of stat rows is only exported to peers: imported from a file, rows are new changes.
+    private fun exportTable(
+        course: String,
+        whereClause: String,
+        withModified: Boolean,
+        onRow: (row: List<String>, index: Int, total: Int) -> Unit
+    ) {
         val columns = "'$course'.id, word, translation, audio, level"
-        val columnsStat = "id, accessed, skip, difficult, rating, success_rate"
+        val columnsStat = "id, accessed, skip, difficult, rating, success_rate" + if (withModified) ", modified" else ""
         val columnsMl = "id, n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac"
 
-        return query(
-            when {
-                course.endsWith("_stat") -> "SELECT $columnsStat FROM '$course'"
-                course.endsWith("_ml") -> "SELECT $columnsMl FROM '$course'"
-                else -> "SELECT $columns FROM '$course'"
+        read { reader ->
+            val total = query("SELECT COUNT(*) FROM '$course' WHERE $whereClause", reader) {
+                moveToFirst()
+                getInt(0)
             }
-        ) {
-            List(count) {
-                moveToNext()
-                List(columnCount) { index ->
-                    getStringOrNull(index).orEmpty()
+
+            query(
+                when {
+                    course.endsWith("_stat") -> "SELECT $columnsStat FROM '$course'"
+                    course.endsWith("_ml") -> "SELECT $columnsMl FROM '$course'"
+                    else -> "SELECT $columns FROM '$course'"
+                } + " WHERE $whereClause",
+                reader
+            ) {
+                var index = 0
+                while (moveToNext()) {
+                    val row = List(columnCount) { i -> getStringOrNull(i).orEmpty() }
+                    onRow(row, index++, total)
                 }
             }
         }
@@ -283,7 +752,13 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         )
     }
 
-    fun getWords(course: String): Map<Int, Word> {
+    fun getWords(course: String) = getWords(course, null, 0, -1)
+
+    /*
+     * Keyset page: words with id > after ordered by id, at most limit of them (-1 for all);
+     * Pass level to only read that level's words.
+     */
+    fun getWords(course: String, level: String?, after: Int, limit: Int): CourseStore {
         val stat = course + "_stat"
         val ml = course + "_ml"
 
@@ -291,28 +766,28 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         val columnsStat = "accessed, skip, difficult, rating, success_rate"
         val columnsMl = "n_repeat, sum_correct, s_lapsed, type_repeat, hint_frac"
 
-        return buildMap {
+        val where = "'$course'.id > $after" + if (level != null) " AND level = '$level'" else ""
+
+        // Columns are read as they are, audio paths are resolved when a word is looked up.
+        val builder = CourseStore.Builder(File(File(folder, "audio"), course))
+
+        read { reader ->
             query(
                 "SELECT $columns, $columnsStat, $columnsMl " +
                         "FROM '$course' " +
                         "LEFT JOIN '$stat' ON '$course'.id = '$stat'.id " +
-                        "LEFT JOIN '$ml' ON '$course'.id = '$ml'.id"
+                        "LEFT JOIN '$ml' ON '$course'.id = '$ml'.id " +
+                        "WHERE $where " +
+                        "ORDER BY '$course'.id " +
+                        "LIMIT $limit",
+                reader
             ) {
                 while (moveToNext()) {
-                    this@buildMap[getInt(0)] = Word(
+                    builder.add(
+                        id = getInt(0),
                         name = getStringOrNull(1).orEmpty(),
                         translation = getStringOrNull(2).orEmpty(),
-                        audios = getStringOrNull(3)?.split(",", ";")?.let { audios ->
-                            List(audios.size) { index ->
-                                File(
-                                    File(
-                                        folder,
-                                        "audio"
-                                    ),
-                                    "$course/${audios[index].trim()}"
-                                )
-                            }
-                        },
+                        audio = getStringOrNull(3),
                         level = getString(4),
                         accessed = getLong(5),
                         skip = getInt(6) == 1,
@@ -321,15 +796,15 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
                         repetitions = getInt(10),
                         correctAnswers = getInt(11),
                         secondsLapsed = getLong(12),
-                        typeRepeat = Session
-                            .entries
-                            .getOrNull(getIntOrNull(13) ?: -1),
+                        typeRepeat = getIntOrNull(13) ?: -1,
                         hintsFraction = getFloat(14),
                         successRate = getFloat(9)
                     )
                 }
             }
         }
+
+        return builder.build()
     }
 
     fun getTFLiteWords(course: String, assets: AssetManager): Map<Int, Word> {
@@ -342,42 +817,45 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         val columnsStat = "accessed, skip, difficult, rating"
         val columnsMl = "'$ml'.n_repeat, '$ml'.sum_correct, s_lapsed, type_repeat, hint_frac"
 
-        val words = buildMap {
-            query(
-                "SELECT $columns, $columnsStat, $columnsMl " +
-                        "FROM '$course' " +
-                        "LEFT JOIN '$stat' ON '$course'.id = '$stat'.id " +
-                        "LEFT JOIN '$ml' ON '$course'.id = '$ml'.id"
-            ) {
-                while (moveToNext()) {
-                    this@buildMap[getInt(0)] = Word(
-                        name = getStringOrNull(1).orEmpty(),
-                        translation = getStringOrNull(2).orEmpty(),
-                        audios = getStringOrNull(3)?.split(",", ";")?.let { audios ->
-                            List(audios.size) { index ->
-                                File(
+        val words = read { reader ->
+            buildMap {
+                query(
+                    "SELECT $columns, $columnsStat, $columnsMl " +
+                            "FROM '$course' " +
+                            "LEFT JOIN '$stat' ON '$course'.id = '$stat'.id " +
+                            "LEFT JOIN '$ml' ON '$course'.id = '$ml'.id",
+                    reader
+                ) {
+                    while (moveToNext()) {
+                        this@buildMap[getInt(0)] = Word(
+                            name = getStringOrNull(1).orEmpty(),
+                            translation = getStringOrNull(2).orEmpty(),
+                            audios = getStringOrNull(3)?.split(",", ";")?.let { audios ->
+                                List(audios.size) { index ->
                                     File(
-                                        folder,
-                                        "audio"
-                                    ),
-                                    "$course/${audios[index].trim()}"
-                                )
-                            }
-                        },
-                        level = getString(4),
-                        accessed = getLong(5),
-                        skip = getInt(6) == 1,
-                        difficult = getInt(7) == 1,
-                        rating = getInt(8),
-                        repetitions = getInt(9),
-                        correctAnswers = getInt(10),
-                        secondsLapsed = getLong(11),
-                        typeRepeat = Session
-                            .entries
-                            .getOrNull(getIntOrNull(12) ?: -1),
-                        hintsFraction = getFloat(13),
-                        successRate = 1f
-                    )
+                                        File(
+                                            folder,
+                                            "audio"
+                                        ),
+                                        "$course/${audios[index].trim()}"
+                                    )
+                                }
+                            },
+                            level = getString(4),
+                            accessed = getLong(5),
+                            skip = getInt(6) == 1,
+                            difficult = getInt(7) == 1,
+                            rating = getInt(8),
+                            repetitions = getInt(9),
+                            correctAnswers = getInt(10),
+                            secondsLapsed = getLong(11),
+                            typeRepeat = Session
+                                .entries
+                                .getOrNull(getIntOrNull(12) ?: -1),
+                            hintsFraction = getFloat(13),
+                            successRate = 1f
+                        )
+                    }
                 }
             }
         }
@@ -385,11 +863,8 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         val predictions = model?.predict(words.map { (id, word) -> word.toFeatures(id) })
 
         return if (predictions != null) {
-            val pairs = words.keys.zip(predictions.toTypedArray()) { id, prediction ->
-                id to words.getValue(id).copy(successRate = prediction)
-            }
-
-            pairs.toMap()
+            var i = 0
+            words.mapValues { (_, word) -> word.copy(successRate = predictions[i++]) }
         } else {
             words
         }
@@ -399,45 +874,56 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         database.delete("'$course'", "id = $id", null)
     }
 
-    fun updateWord(course: String, id: Int, word: Word) {
-        updateOrInsert(
-            table = course,
-            values = mapOf(
-                "id" to id,
-                "word" to word.name,
-                "translation" to word.translation,
-                "audio" to word.audios?.joinToString(transform = File::getName),
-                "level" to word.level
-            ),
-            whereClause = "id = $id"
-        )
-
-        updateOrInsert(
-            table = course + "_stat",
-            values = mapOf(
-                "id" to id,
-                "accessed" to word.accessed,
-                "skip" to word.skip,
-                "difficult" to word.difficult,
-                "rating" to word.rating,
-                "success_rate" to word.successRate
-            ),
-            whereClause = "id = $id"
-        )
+    fun updateWord(course: String, id: Int, word: Word) = updateWords(course, mapOf(id to word))
 
-        updateOrInsert(
-            table = course + "_ml",
-            values = mapOf(
-                "id" to id,
-                "n_repeat" to word.repetitions,
-                "sum_correct" to word.correctAnswers,
-                "cur_rating" to word.rating,
-                "s_lapsed" to word.secondsLapsed,
-                "type_repeat" to word.typeRepeat?.ordinal,
-                "hint_frac" to word.hintsFraction
-            ),
-            whereClause = "id = $id"
-        )
+    // All the words in one transaction, so saving them costs one commit.
+    fun updateWords(course: String, words: Map<Int, Word>) = synchronized(statements) {
+        val stat = course + "_stat"
+        migrateDue(stat) // Triggers give the saved rows their versions.
+        val due = statement("UPDATE '$stat' SET due_at = $DUE_AT WHERE id = ?")
+
+        transaction {
+            words.forEach { (id, word) ->
+                upsert(
+                    table = course,
+                    values = listOf(
+                        "id" to id,
+                        "word" to word.name,
+                        "translation" to word.translation,
+                        "audio" to word.audios?.joinToString(transform = File::getName),
+                        "level" to word.level
+                    )
+                )
+
+                upsert(
+                    table = stat,
+                    values = listOf(
+                        "id" to id,
+                        "accessed" to word.accessed,
+                        "skip" to word.skip,
+                        "difficult" to word.difficult,
+                        "rating" to word.rating,
+                        "success_rate" to word.successRate
+                    )
+                )
+
+                due.bindLong(1, id.toLong())
+                due.executeUpdateDelete()
+
+                upsert(
+                    table = course + "_ml",
+                    values = listOf(
+                        "id" to id,
+                        "n_repeat" to word.repetitions,
+                        "sum_correct" to word.correctAnswers,
+                        "cur_rating" to word.rating,
+                        "s_lapsed" to word.secondsLapsed,
+                        "type_repeat" to word.typeRepeat?.ordinal,
+                        "hint_frac" to word.hintsFraction
+                    )
+                )
+            }
+        }
     }
 
     /*
@@ -465,10 +951,19 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
             "skip INTEGER DEFAULT 0",
             "difficult INTEGER DEFAULT 0",
             "rating INTEGER DEFAULT 0",
-            "success_rate REAL DEFAULT 1.0"
+            "success_rate REAL DEFAULT 1.0",
+            "due_at INTEGER",
+            "modified INTEGER"
         )
+        createIndexes(stat)
+        createTriggers(stat)
 
-        database.execSQL("INSERT INTO $master.'$stat' SELECT * FROM $slave.'$stat'")
+        // Columns are listed since the slave may predate due_at; modified is given anew.
+        database.execSQL(
+            "INSERT INTO $master.'$stat' (id, accessed, skip, difficult, rating, success_rate) " +
+                    "SELECT id, accessed, skip, difficult, rating, success_rate FROM $slave.'$stat'"
+        )
+        updateDue(stat)
 
         val ml = course + "_ml"
 
@@ -486,62 +981,135 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         database.execSQL("INSERT INTO $master.'$ml' SELECT * FROM $slave.'$ml'")
     }
 
-    private fun replicateWords(master: String, slave: String, course: String) {
+    private fun replicateWords(master: String, slave: String, course: String, since: Mark) {
         // Insert only those fields, which are absent in master, but exist in slave.
         database.execSQL(
-            "INSERT INTO $master.'$course' (id, word, translation, audio, level) " +
+            "INSERT OR IGNORE INTO $master.'$course' (id, word, translation, audio, level) " +
                     "SELECT id, word, translation, audio, level " +
                     "FROM $slave.'$course' " +
-                    "WHERE NOT EXISTS (SELECT 1 FROM $master.'$course' " +
-                    "WHERE $master.'$course'.id = $slave.'$course'.id)"
+                    "WHERE id > ${since.id}"
         )
     }
 
-    private fun replicateStat(master: String, slave: String, stat: String) {
-        // Insert only those fields, which are absent in master, but exist in slave.
-        database.execSQL(
-            "INSERT INTO $master.'$stat' (id, accessed, skip, difficult, rating, success_rate) " +
-                    "SELECT id, accessed, skip, difficult, rating, success_rate " +
-                    "FROM $slave.'$stat' " +
-                    "WHERE NOT EXISTS (SELECT 1 FROM $master.'$stat' " +
-                    "WHERE $master.'$stat'.id = $slave.'$stat'.id)"
-        )
+    private fun replicateStat(master: String, slave: String, course: String, since: Mark) {
+        val stat = course + "_stat"
+        val changed = since.changed("s")
 
-        // Update only those fields, where master.accessed < slave.accessed
+        // Insert absent rows and replace those unchanged here since the last merge or older by accessed.
         database.execSQL(
-            "UPDATE $master.'$stat' " +
-                    "SET (accessed, skip, difficult, rating, success_rate) = (" +
-                    "SELECT accessed, skip, difficult, rating, success_rate " +
-                    "FROM $slave.'$stat' WHERE $slave.'$stat'.id = $master.'$stat'.id) " +
-                    "WHERE EXISTS (SELECT 1 FROM $slave.'$stat' " +
-                    "WHERE $slave.'$stat'.id = $master.'$stat'.id " +
-                    "AND $slave.'$stat'.accessed > $master.'$stat'.accessed)"
+            "INSERT OR REPLACE INTO $master.'$stat' (id, accessed, skip, difficult, rating, success_rate) " +
+                    "SELECT s.id, s.accessed, s.skip, s.difficult, s.rating, s.success_rate " +
+                    "FROM $slave.'$stat' s " +
+                    "JOIN $master.'$course' w ON w.id = s.id " +
+                    "LEFT JOIN $master.'$stat' m ON m.id = s.id " +
+                    "WHERE $changed AND (m.id IS NULL OR ${since.outdated("m", "s")})"
         )
+
+        updateDue(stat, "id IN (SELECT s.id FROM $slave.'$stat' s WHERE $changed)")
     }
 
-    private fun replicateMl(master: String, slave: String, ml: String, stat: String) {
-        // Insert only those fields, which are absent in master, but exist in slave.
-        database.execSQL(
-            "INSERT INTO $master.'$ml' (id, n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac) " +
-                    "SELECT id, n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac " +
-                    "FROM $slave.'$ml' " +
-                    "WHERE NOT EXISTS (SELECT 1 FROM $master.'$ml' " +
-                    "WHERE $master.'$ml'.id = $slave.'$ml'.id)"
-        )
+    private fun replicateMl(master: String, slave: String, course: String, since: Mark) {
+        val stat = course + "_stat"
+        val ml = course + "_ml"
+        val changed = since.changed("s")
 
-        // Update only those fields, where master.accessed < slave.accessed
+        // As replicateStat, decided by the stat rows before they are replaced.
         database.execSQL(
-            "UPDATE $master.'$ml' " +
-                    "SET (n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac) = (" +
-                    "SELECT n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac " +
-                    "FROM $slave.'$ml' WHERE id = $master.'$ml'.id) " +
-                    "WHERE EXISTS (SELECT 1 FROM $slave.'$stat' " +
-                    "JOIN $master.'$stat' ON $master.'$stat'.id = $slave.'$stat'.id " +
-                    "WHERE $master.'$stat'.id = $master.'$ml'.id " +
-                    "AND $slave.'$stat'.accessed > $master.'$stat'.accessed)"
+            "INSERT OR REPLACE INTO $master.'$ml' (id, n_repeat, sum_correct, cur_rating, s_lapsed, type_repeat, hint_frac) " +
+                    "SELECT l.id, l.n_repeat, l.sum_correct, l.cur_rating, l.s_lapsed, l.type_repeat, l.hint_frac " +
+                    "FROM $slave.'$ml' l " +
+                    "JOIN $master.'$course' w ON w.id = l.id " +
+                    "LEFT JOIN $slave.'$stat' s ON s.id = l.id " +
+                    "LEFT JOIN $master.'$stat' m ON m.id = l.id " +
+                    "LEFT JOIN $master.'$ml' ml ON ml.id = l.id " +
+                    "WHERE ($changed OR s.id IS NULL) AND (ml.id IS NULL OR ${since.outdated("m", "s")})"
         )
     }
 
+    /*
+     * What was already merged from a peer: its greatest word id and stat modified,
+     * and the local version after that merge, which tells the rows changed here since.
+     * Word ids and versions only grow, so older rows need no second look.
+     */
+    data class Mark(val id: Int, val modified: Long, val local: Long = 0L) {
+        // Rows of the peer's stat not merged yet; rows from before modified existed only by id.
+        fun changed(stat: String) = if (modified > 0 || id > 0) {
+            "($stat.modified > $modified OR $stat.id > $id)"
+        } else {
+            "1"
+        }
+
+        /*
+         * The peer's row wins over the local one if that one is unchanged since the last merge, else if newer.
+         * Before the first merge it is not known what changed here, rows without modified didn't since.
+         */
+        fun outdated(master: String, slave: String) = if (local > 0) {
+            "(IFNULL($master.modified, 0) <= $local OR $slave.accessed > $master.accessed)"
+        } else {
+            "$slave.accessed > $master.accessed"
+        }
+    }
+
+    // Marks against accessed are dropped, peers merge everything once and are marked by modified.
+    private fun getDevice(db: String): String? {
+        val exists = query("SELECT 1 FROM $db.sqlite_master WHERE type = 'table' AND name = 'device'") {
+            moveToFirst()
+        }
+
+        return if (exists) query("SELECT id FROM $db.device") { if (moveToFirst()) getString(0) else null } else null
+    }
+
+    fun getMark(peer: String?, course: String): Mark {
+        return if (peer != null) {
+            query("SELECT id, modified, local FROM marks WHERE peer = '$peer' AND course = '$course'") {
+                if (moveToFirst()) Mark(getInt(0), getLong(1), getLong(2)) else Mark(0, 0L)
+            }
+        } else {
+            Mark(0, 0L) // Unknown peer: everything is merged.
+        }
+    }
+
+    /*
+     * The slave may be a delta holding only some rows, so the mark never goes back.
+     * A slave from before modified existed was merged whole, its mark is by id only.
+     * Called after the merge, so that local covers the versions the merged rows got.
+     */
+    private fun setMark(peer: String?, slave: String, course: String, since: Mark) {
+        if (peer != null) {
+            val stat = course + "_stat"
+            val modified = if ("modified" in catalog(slave, database).tables[stat].orEmpty()) {
+                "(SELECT IFNULL(MAX(modified), 0) FROM $slave.'$stat')"
+            } else {
+                "0"
+            }
+
+            database.execSQL(
+                "INSERT OR REPLACE INTO marks (peer, course, id, modified, local) " +
+                        "SELECT '$peer', '$course', " +
+                        "MAX((SELECT IFNULL(MAX(id), 0) FROM $slave.'$course'), ${since.id}), " +
+                        "MAX($modified, ${since.modified}), " +
+                        "(SELECT value FROM stat_version)"
+            )
+        }
+    }
+
+    var device: String
+        get() = getDevice(MASTER) ?: error("No device id.")
+        set(value) = database.execSQL("UPDATE device SET id = '$value'")
+
+    // Rows of the course a peer with the given mark has not merged yet, the words of changed stats included.
+    fun exportDelta(course: String, since: Mark, onRow: (table: String, row: List<String>) -> Unit) {
+        val stat = course + "_stat"
+        val ml = course + "_ml"
+        val changed = "id > ${since.id} OR id IN (SELECT s.id FROM '$stat' s WHERE ${since.changed("s")})"
+
+        migrateDue(stat)
+
+        exportTable(course, changed) { row, _, _ -> onRow(course, row) }
+        exportTable(stat, since.changed("'$stat'"), true) { row, _, _ -> onRow(stat, row) }
+        exportTable(ml, changed) { row, _, _ -> onRow(ml, row) }
+    }
+
     fun attach(db: File, name: String) {
         database.execSQL("ATTACH DATABASE '$db' AS $name")
         lastlyAttached = db
@@ -549,6 +1117,7 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
 
     fun detach(name: String) {
         database.execSQL("DETACH DATABASE $name")
+        runCatching { database.enableWal() } // Where Android left WAL mode on ATTACH.
     }
 
     inline fun runAttaching( // Do NOT remove the inline modifier.
@@ -571,22 +1140,33 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
     fun replicate(slaveCourses: List<String>): List<String> {
         val masterCourses = getCoursesNames(MASTER)
 
-        slaveCourses.forEach { course ->
-            if (course !in masterCourses) {
-                replicateCourse(MASTER, SLAVE, course)
+        val peer = getDevice(SLAVE)
+
+        transaction {
+            slaveCourses.forEach { course ->
+                if (course !in masterCourses) {
+                    replicateCourse(MASTER, SLAVE, course)
+                    setMark(peer, SLAVE, course, Mark(0, 0L))
+                }
             }
-        }
 
-        masterCourses.forEach { course ->
-            if (course in slaveCourses) {
-                replicateWords(MASTER, SLAVE, course)
-                replicateMl(
-                    MASTER,
-                    SLAVE,
-                    course + "_ml",
-                    course + "_stat"
-                ) // Do NOT change the order.
-                replicateStat(MASTER, SLAVE, course + "_stat")
+            masterCourses.forEach { course ->
+                if (course in slaveCourses) {
+                    val stat = course + "_stat"
+                    val mark = getMark(peer, course)
+                    val since = if ("modified" in catalog(SLAVE, database).tables[stat].orEmpty()) {
+                        mark
+                    } else {
+                        Mark(0, 0L, mark.local) // Can't tell its changed rows
+                    }
+
+                    migrateDue(stat)
+                    replicateWords(MASTER, SLAVE, course, since)
+                    replicateMl(MASTER, SLAVE, course, since) // Do NOT change the order.
+                    replicateStat(MASTER, SLAVE, course, since)
+
+                    setMark(peer, SLAVE, course, since)
+                }
             }
         }
 
@@ -602,7 +1182,17 @@ class Database(private val folder: File) : AutoCloseable { // Not singleton!
         }
     }
 
-    override fun close() {
-        database.close()
+    // Waits for the readers to be returned; the WAL is emptied into the file by the last connection closed.
+    override fun close() = synchronized(readers) {
+        repeat(opened) { readers.take().close() }
+        opened = 0
+
+        writer?.let { database ->
+            closeStatements()
+            database.close()
+        }
+        writer = null
+        catalog = null
+        migrated.clear()
     }
 }
\ No newline at end of file
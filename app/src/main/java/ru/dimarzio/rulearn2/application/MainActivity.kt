@@ -173,7 +173,8 @@ fun CoursesRoute(
                     prefsViewModel.database,
                     handler,
                     application,
-                    lifecycle
+                    lifecycle,
+                    prefsViewModel.coursesSnapshot
                 )
             }
 
@@ -306,6 +307,7 @@ fun CourseRoute(
                     database = prefsViewModel.database,
                     handler = handler,
                     appFolder = prefsViewModel.appFolder,
+                    journalFolder = prefsViewModel.journalDir,
                     course = course,
                     assets = assets,
                     lifecycle = lifecycle
@@ -330,7 +332,9 @@ fun CourseRoute(
         modelLoaded = courseViewModel.model?.isLoaded() == true,
         loss = courseViewModel.loss,
         showTrainingIndicator = courseViewModel.showTrainingIndicator,
+        trainingProgress = courseViewModel.trainingProgress,
         onTrainActionClick = courseViewModel::train,
+        onTrainingCancel = courseViewModel::cancelTraining,
         filterRepeat = courseViewModel.filterRepeat,
         filterNotRepeat = courseViewModel.filterNotRepeat,
         filterDifficult = courseViewModel.filterDifficult,
@@ -347,6 +351,7 @@ fun CourseRoute(
         onQueryChange = courseViewModel::updateQuery,
         onSearch = courseViewModel::search,
         words = courseViewModel.words.collectAsState().value,
+        clock = courseViewModel.clock,
         selectedSession = prefsViewModel.selectedSession,
         onLearnNewWordsClick = {
             prefsViewModel.updateSelectedSession(PreferencesViewModel.Session.LearnNewWords)
@@ -399,7 +404,7 @@ fun LevelRoute(
         val levelViewModel = viewModel<LevelViewModel>(
             factory = viewModelFactory {
                 addInitializer(LevelViewModel::class) {
-                    LevelViewModel(level, courseWords)
+                    LevelViewModel(level, courseWords, courseViewModel.clock)
                 }
             }
         )
@@ -414,6 +419,7 @@ fun LevelRoute(
             onSortActionClick = levelViewModel::sort,
             onSettingsActionClick = { navController.navigate(MainRoutes.Settings.route) },
             words = levelViewModel.sortedWords,
+            clock = levelViewModel.clock,
             selectedSession = prefsViewModel.selectedSession,
             onLearnNewWordsClick = {
                 prefsViewModel.updateSelectedSession(PreferencesViewModel.Session.LearnNewWords)
@@ -478,6 +484,7 @@ fun WordRoute(
         Word(
             id = wordViewModel.newId,
             word = wordViewModel.newWord,
+            clock = courseViewModel.clock,
             modified = wordViewModel.modified,
             tts = tts,
             locale = courseViewModel.locale,
@@ -537,7 +544,8 @@ fun GuessingReviewRoute(
                         type = PreferencesViewModel.Session.GuessingReview,
                         courseWords = courseWords,
                         level = level,
-                        limit = 25
+                        limit = 25,
+                        clock = courseViewModel.clock
                     )
                 }
             }
@@ -577,6 +585,8 @@ fun GuessingReviewRoute(
                 },
                 handler = handler,
                 courseWords = courseWords,
+                courseVersion = courseViewModel.version.collectAsState().value,
+                clock = courseViewModel.clock,
                 otherLevels = courseViewModel.levels.collectAsState().value.keys,
                 onNavigationIconClick = navController::navigateUp,
                 progress = reviewViewModel.progress,
@@ -633,7 +643,8 @@ fun TypingReviewRoute(
                         type = PreferencesViewModel.Session.TypingReview,
                         courseWords = courseWords,
                         level = level,
-                        limit = 25
+                        limit = 25,
+                        clock = courseViewModel.clock
                     )
                 }
             }
@@ -676,6 +687,7 @@ fun TypingReviewRoute(
                 onNavigationIconClick = navController::popBackStack,
                 progress = reviewViewModel.progress,
                 courseWords = courseWords,
+                clock = courseViewModel.clock,
                 otherLevels = courseViewModel.levels.collectAsState().value.keys,
                 onAnswer = { correct, hintsUsed ->
                     val new = reviewViewModel.answer(correct, hintsUsed)
@@ -762,6 +774,8 @@ fun LearnWordsRoute(
                 getWord = courseViewModel::getWord,
                 onSettingsActionClick = { navController.navigate(MainRoutes.Settings.route) },
                 courseWords = courseWords,
+                courseVersion = courseViewModel.version.collectAsState().value,
+                clock = courseViewModel.clock,
                 otherLevels = courseViewModel.levels.collectAsState().value.keys,
                 onNavigationIconClick = navController::popBackStack,
                 progress = learnWordsViewModel.progress,
@@ -855,6 +869,8 @@ fun DifficultWordsRoute(
                 getWord = courseViewModel::getWord,
                 onSettingsActionClick = { navController.navigate(MainRoutes.Settings.route) },
                 courseWords = courseWords,
+                courseVersion = courseViewModel.version.collectAsState().value,
+                clock = courseViewModel.clock,
                 otherLevels = courseViewModel.levels.collectAsState().value.keys,
                 handler = handler,
                 onNavigationIconClick = navController::popBackStack,
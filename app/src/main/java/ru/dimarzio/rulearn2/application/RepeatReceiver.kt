@@ -12,6 +12,7 @@ import ru.dimarzio.rulearn2.utils.notifyPermissionGranted
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel
 import java.io.File
 import java.time.LocalTime
+import kotlin.concurrent.thread
 
 class RepeatReceiver : BroadcastReceiver() {
     companion object {
@@ -34,32 +35,41 @@ class RepeatReceiver : BroadcastReceiver() {
     @SuppressLint("MissingPermission")
     override fun onReceive(context: Context, intent: Intent) {
         if (!isQuietHours(LocalTime.now())) {
-            val result = runCatching {
-                intent.getStringExtra("folder")
-                    ?.let { folder -> Database(File(folder)) } // Create new instance because of possible closing main one.
-                    ?.use { getCoursesNames().filter { course -> getRepeatWords(course) > 0 } }
-            }
+            val pending = goAsync()
+
+            // Off the main thread: the database may be busy with an import or replication of the app.
+            thread {
+                try {
+                    val result = runCatching {
+                        intent.getStringExtra("folder")
+                            ?.let { folder -> Database(File(folder)) } // Create new instance because of possible closing main one.
+                            ?.use { getCoursesNames().filter { course -> getRepeatWords(course) > 0 } }
+                    }
 
-            val courses = result.getOrDefault(emptyList())
+                    val courses = result.getOrDefault(emptyList())
 
-            if (courses?.isNotEmpty() == true && context.notifyPermissionGranted) {
-                val builder = NotificationCompat.Builder(context, CHANNEL_ID)
-                    .setSmallIcon(R.drawable.baseline_reminder_24)
-                    .setContentTitle("It's time to refresh your memory!")
-                    .setContentText("Some words for repetition are found in ${courses.joinToString()}")
-                    .setContentIntent(
-                        PendingIntent.getActivity(
-                            context,
-                            1,
-                            Intent(context, MainActivity::class.java).apply {
-                                addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP)
-                            },
-                            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
-                        )
-                    )
-                    .setAutoCancel(true)
+                    if (courses?.isNotEmpty() == true && context.notifyPermissionGranted) {
+                        val builder = NotificationCompat.Builder(context, CHANNEL_ID)
+                            .setSmallIcon(R.drawable.baseline_reminder_24)
+                            .setContentTitle("It's time to refresh your memory!")
+                            .setContentText("Some words for repetition are found in ${courses.joinToString()}")
+                            .setContentIntent(
+                                PendingIntent.getActivity(
+                                    context,
+                                    1,
+                                    Intent(context, MainActivity::class.java).apply {
+                                        addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP)
+                                    },
+                                    PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
+                                )
+                            )
+                            .setAutoCancel(true)
 
-                NotificationManagerCompat.from(context).notify(NOTIFICATION_ID, builder.build())
+                        NotificationManagerCompat.from(context).notify(NOTIFICATION_ID, builder.build())
+                    }
+                } finally {
+                    pending.finish()
+                }
             }
         }
     }
@@ -0,0 +1,288 @@
+package ru.dimarzio.rulearn2.application
+
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/*
+ * Write-behind saving of the changes of a course. The caller has already applied a change in memory;
+ * here it is appended to a journal and left to one background thread, which saves the changes in order,
+ * only the latest update of every word between two other changes, all of them in one transaction.
+ * A failed batch is retried with backoff. The journals are replayed by recover when the database
+ * opens, so what was not saved before the process died is saved before anything else writes.
+ */
+class WordWriter(
+    private val database: Database,
+    private val course: String,
+    private val journal: File,
+    private val onError: (Throwable) -> Unit
+) : AutoCloseable {
+    // A change as saved and journaled: the words in a row are merged, the rest keep their place among them.
+    internal sealed class Change {
+        abstract fun save(database: Database, course: String)
+
+        class Words(val words: LinkedHashMap<Int, Word> = LinkedHashMap()) : Change() {
+            override fun save(database: Database, course: String) = database.updateWords(course, words)
+        }
+
+        class DeleteWord(val id: Int) : Change() {
+            override fun save(database: Database, course: String) = database.deleteWord(course, id)
+        }
+
+        class DeleteLevel(val level: String) : Change() {
+            override fun save(database: Database, course: String) = database.deleteLevel(course, level)
+        }
+
+        class RenameLevel(val from: String, val to: String) : Change() {
+            override fun save(database: Database, course: String) = database.renameLevel(course, from, to)
+        }
+    }
+
+    private val lock = Any()
+    private val pending = mutableListOf<Change>()
+    private val executor = ScheduledThreadPoolExecutor(1).apply {
+        executeExistingDelayedTasksAfterShutdownPolicy = false // A retry is dropped, the journal keeps its changes.
+    }
+
+    private var scheduled = false
+    private var retries = 0 // Failed batches in a row, on the executor only
+    private var output: DataOutputStream? = null
+
+    companion object {
+        private const val BACKOFF = 500L // Millis before the first retry, doubled after every failure
+        private const val MAX_BACKOFF = 60_000L
+
+        private const val WORD = 0 // Tags of the journal records
+        private const val DELETE_WORD = 1
+        private const val DELETE_LEVEL = 2
+        private const val RENAME_LEVEL = 3
+
+        // Per database folder and course, so that a journal is never replayed into another database.
+        fun journal(journals: File, folder: File, course: String) = File(journals, "${folder.path.hashCode()}_$course")
+
+        /*
+         * Saves what the writers of previous processes journaled for the database in folder but did not save,
+         * then deletes the journals. Run by the database when it opens, before replication or an import
+         * can write newer rows. A journal which cannot be saved, say of a deleted course, is dropped.
+         */
+        fun recover(database: Database, journals: File, folder: File) {
+            val prefix = "${folder.path.hashCode()}_"
+            journals.listFiles { file -> file.name.startsWith(prefix) }.orEmpty().forEach { journal ->
+                val course = journal.name.removePrefix(prefix)
+                runCatching {
+                    database.atomically { read(journal).forEach { change -> change.save(database, course) } }
+                }
+                journal.delete()
+            }
+        }
+
+        // Merged into the words changed last, unless another change came after them.
+        private fun MutableList<Change>.put(id: Int, word: Word) {
+            val words = lastOrNull() as? Change.Words ?: Change.Words().also { words -> add(words) }
+            words.words[id] = word
+        }
+
+        private fun DataInputStream.readText() = String(ByteArray(readInt()).also(::readFully))
+
+        private fun DataInputStream.readWord() = Word(
+            name = readText(),
+            translation = readText(),
+            audios = if (readBoolean()) {
+                List(readInt()) { File(readText()) } // Only the names are saved.
+            } else {
+                null
+            },
+            level = readText(),
+            accessed = readLong(),
+            difficult = readBoolean(),
+            skip = readBoolean(),
+            rating = readInt(),
+            repetitions = readInt(),
+            correctAnswers = readInt(),
+            secondsLapsed = readLong(),
+            typeRepeat = Session.entries.getOrNull(readInt()),
+            hintsFraction = readFloat(),
+            successRate = readFloat()
+        )
+
+        // Journaled changes in order, words in a row merged; a record cut short by a crash is dropped.
+        private fun read(journal: File) = buildList<Change> {
+            if (!journal.exists()) {
+                return@buildList
+            }
+
+            DataInputStream(BufferedInputStream(journal.inputStream())).use { input ->
+                try {
+                    while (true) {
+                        val change = when (input.readByte().toInt()) {
+                            WORD -> {
+                                put(input.readInt(), input.readWord())
+                                continue
+                            }
+
+                            DELETE_WORD -> Change.DeleteWord(input.readInt())
+                            DELETE_LEVEL -> Change.DeleteLevel(input.readText())
+                            RENAME_LEVEL -> Change.RenameLevel(input.readText(), input.readText())
+                            else -> break // Not a record, the rest is unreadable.
+                        }
+                        add(change)
+                    }
+                } catch (e: EOFException) {
+                    // End of the journal
+                }
+            }
+        }
+    }
+
+    private fun DataOutputStream.writeText(text: String) {
+        val bytes = text.toByteArray()
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun DataOutputStream.writeWord(word: Word) {
+        writeText(word.name)
+        writeText(word.translation)
+        writeBoolean(word.audios != null)
+        word.audios?.let { audios ->
+            writeInt(audios.size)
+            audios.forEach { audio -> writeText(audio.name) }
+        }
+        writeText(word.level)
+        writeLong(word.accessed)
+        writeBoolean(word.difficult)
+        writeBoolean(word.skip)
+        writeInt(word.rating)
+        writeInt(word.repetitions)
+        writeInt(word.correctAnswers)
+        writeLong(word.secondsLapsed)
+        writeInt(word.typeRepeat?.ordinal ?: -1)
+        writeFloat(word.hintsFraction)
+        writeFloat(word.successRate)
+    }
+
+    // Flushed to the system after every record, which is enough for the process dying.
+    private inline fun append(tag: Int, record: DataOutputStream.() -> Unit) {
+        val output = output ?: DataOutputStream(BufferedOutputStream(FileOutputStream(journal, true)))
+        this.output = output
+
+        output.writeByte(tag)
+        output.record()
+        output.flush()
+    }
+
+    internal fun read() = read(journal)
+
+    private fun truncate() {
+        output?.close()
+        output = null
+        journal.delete()
+    }
+
+    private fun drain() {
+        val batch = synchronized(lock) {
+            scheduled = false
+            pending.toList().also { pending.clear() }
+        }
+
+        if (batch.isEmpty()) {
+            return
+        }
+
+        try {
+            database.atomically { batch.forEach { change -> change.save(database, course) } }
+        } catch (e: Throwable) {
+            val delay = minOf(BACKOFF shl minOf(retries++, 16), MAX_BACKOFF)
+
+            synchronized(lock) { // Kept for the next try, before what came meanwhile.
+                pending.addAll(0, batch)
+
+                if (!scheduled && !executor.isShutdown) {
+                    scheduled = true
+                    executor.schedule(Runnable(::drain), delay, TimeUnit.MILLISECONDS)
+                }
+            }
+            onError(e)
+            return
+        }
+
+        retries = 0
+        synchronized(lock) {
+            if (pending.isEmpty()) {
+                truncate()
+            }
+        }
+    }
+
+    private inline fun enqueue(change: (MutableList<Change>) -> Unit, tag: Int, record: DataOutputStream.() -> Unit) =
+        synchronized(lock) {
+            if (executor.isShutdown) {
+                return@synchronized
+            }
+
+            change(pending)
+            runCatching { append(tag, record) }.onFailure(onError)
+
+            if (!scheduled) {
+                scheduled = true
+                executor.execute(::drain)
+            }
+        }
+
+    fun enqueue(id: Int, word: Word) = enqueue(
+        change = { pending -> pending.put(id, word) },
+        tag = WORD
+    ) {
+        writeInt(id)
+        writeWord(word)
+    }
+
+    fun deleteWord(id: Int) = enqueue({ pending -> pending.add(Change.DeleteWord(id)) }, DELETE_WORD) {
+        writeInt(id)
+    }
+
+    fun deleteLevel(level: String) = enqueue({ pending -> pending.add(Change.DeleteLevel(level)) }, DELETE_LEVEL) {
+        writeText(level)
+    }
+
+    fun renameLevel(from: String, to: String) =
+        enqueue({ pending -> pending.add(Change.RenameLevel(from, to)) }, RENAME_LEVEL) {
+            writeText(from)
+            writeText(to)
+        }
+
+    // Starts saving what is pending without waiting for it.
+    fun flush() {
+        if (!executor.isShutdown) {
+            executor.execute(::drain)
+        }
+    }
+
+    // Saves what is pending on the writer thread, which then ends; returns at once, off the main thread or not.
+    override fun close() = synchronized(lock) {
+        if (executor.isShutdown) {
+            return@synchronized
+        }
+
+        executor.execute {
+            drain()
+
+            synchronized(lock) {
+                output?.close()
+                output = null
+            }
+        }
+        executor.shutdown()
+    }
+
+    // Waits for close to be done, for tests.
+    internal fun awaitClosed() = executor.awaitTermination(MAX_BACKOFF, TimeUnit.MILLISECONDS)
+}
\ No newline at end of file
@@ -43,6 +43,7 @@ fun SessionContainer(
     scaffoldState: BottomSheetScaffoldState,
     label: String,
     words: Map<Int, Word>,
+    clock: () -> Long,
     player: MediaPlayer,
     tts: TextToSpeech,
     locale: Locale,
@@ -69,10 +70,13 @@ fun SessionContainer(
 
                     Spacer(modifier = Modifier.size(20.dp))
 
+                    val now = clock()
+
                     LazyColumn {
                         items(words.toList()) { (id, word) ->
                             WordsListItem(
                                 word = word,
+                                now = now,
                                 player = player,
                                 tts = tts,
                                 locale = locale,
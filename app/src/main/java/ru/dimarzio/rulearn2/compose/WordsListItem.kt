@@ -61,7 +61,7 @@ fun CircularIndicator(
 }
 
 @Composable
-fun WordIndicator(word: Word, maxRating: Int = Word.MAX_RATING) {
+fun WordIndicator(word: Word, now: Long, maxRating: Int = Word.MAX_RATING) {
     Row(verticalAlignment = Alignment.CenterVertically) {
         CircularProgressIndicator(
             progress = { (word.rating percentageFrom maxRating) / 100 },
@@ -73,7 +73,7 @@ fun WordIndicator(word: Word, maxRating: Int = Word.MAX_RATING) {
 
         Column {
             CircularIndicator(
-                modifier = Modifier.alpha(if (word.isRepeat) 1f else 0f),
+                modifier = Modifier.alpha(if (word.isRepeat(now)) 1f else 0f),
                 iconResource = R.drawable.baseline_repeat_24
             )
 
@@ -90,6 +90,7 @@ fun WordIndicator(word: Word, maxRating: Int = Word.MAX_RATING) {
 @Composable
 fun WordsListItem(
     word: Word,
+    now: Long,
     player: MediaPlayer,
     tts: TextToSpeech,
     locale: Locale,
@@ -129,7 +130,7 @@ fun WordsListItem(
                 )
             },
             leadingContent = {
-                WordIndicator(word = word)
+                WordIndicator(word = word, now = now)
             },
             trailingContent = {
                 IconButton(onClick = { menuExpanded = true }) {
@@ -70,8 +70,11 @@ import ru.dimarzio.rulearn2.compose.SwipeToRevealBox
 import ru.dimarzio.rulearn2.compose.TextFieldDialog
 import ru.dimarzio.rulearn2.models.Level
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.tflite.Loss
+import ru.dimarzio.rulearn2.utils.normalized
 import ru.dimarzio.rulearn2.utils.percentageFrom
+import ru.dimarzio.rulearn2.utils.rawRange
 import ru.dimarzio.rulearn2.utils.toast
 import ru.dimarzio.rulearn2.viewmodels.Filter
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
@@ -85,7 +88,9 @@ fun Course(
     modelLoaded: Boolean,
     loss: Loss,
     showTrainingIndicator: Boolean,
+    trainingProgress: Int,
     onTrainActionClick: () -> Unit,
+    onTrainingCancel: () -> Unit,
     filterRepeat: Boolean,
     filterNotRepeat: Boolean,
     filterDifficult: Boolean,
@@ -101,7 +106,8 @@ fun Course(
     query: String,
     onQueryChange: (String) -> Unit,
     onSearch: () -> Unit,
-    words: Map<Int, Word>,
+    words: WordRows,
+    clock: () -> Long,
     selectedSession: Session,
     onLearnNewWordsClick: () -> Unit,
     onDifficultWordsClick: () -> Unit,
@@ -177,9 +183,9 @@ fun Course(
                 onDifficultWordsClick = onDifficultWordsClick,
                 onTypingReviewClick = onTypingReviewClick,
                 onGuessingReviewClick = onGuessingReviewClick,
-                toLearnNumber = words.count { (_, word) -> !word.learned && !word.skip },
-                difficultNumber = words.count { (_, word) -> word.isDifficult },
-                toRepeatNumber = words.count { (_, word) -> word.isRepeat },
+                toLearnNumber = words.countRows { !learned && !skip },
+                difficultNumber = words.countRows { isDifficult },
+                toRepeatNumber = clock().let { now -> words.countRows { isRepeat(now) } },
                 scrollButtonVisible = scrollButtonVisible,
                 onScrollClick = {
                     coroutineScope.launch {
@@ -193,14 +199,14 @@ fun Course(
         if (showTrainingIndicator) {
             ProgressDialog(
                 title = "Training...",
-                message = "Please wait...",
-                onDismissRequest = {}
+                progress = trainingProgress,
+                onDismissRequest = onTrainingCancel
             )
         }
 
-        val learnedNumber = words.count { (_, word) -> word.learned && !word.skip }
+        val learnedNumber = words.countRows { learned && !skip }
 
-        val totalWords = words.count { (_, word) -> !word.skip }
+        val totalWords = words.countRows { !skip }
 
         Column(modifier = Modifier.padding(innerPadding)) {
             Row(
@@ -232,7 +238,7 @@ fun Course(
             )
 
             val toRepeatNumber by remember(key1 = words) {
-                mutableIntStateOf(words.count { (_, word) -> word.isRepeat })
+                mutableIntStateOf(clock().let { now -> words.countRows { isRepeat(now) } })
             }
 
             LaunchedEffect(key1 = toRepeatNumber) {
@@ -255,6 +261,12 @@ private fun AnnotatedString(text: String, color: Color, range: IntRange) = Annot
     )
 )
 
+// Where the query is in the text, found in its normalized form and mapped back to the text.
+private fun String.highlight(normalized: String, query: String): IntRange? {
+    val index = normalized.indexOf(query)
+    return if (index != -1) rawRange(index, index + query.length) else null
+}
+
 @Composable
 private fun SearchListItem(
     id: Int,
@@ -262,17 +274,15 @@ private fun SearchListItem(
     searchText: String,
     onClick: () -> Unit
 ) {
+    val normalized = remember(searchText) { searchText.normalized() }
+
     ListItem(
         headlineContent = {
-            val index = word.normalizedName.indexOf(searchText)
+            val range = word.name.highlight(word.normalizedName, normalized)
 
             Text(
-                text = if (index != -1) {
-                    AnnotatedString(
-                        word.name,
-                        MaterialTheme.colorScheme.primary,
-                        index..index + searchText.length
-                    )
+                text = if (range != null) {
+                    AnnotatedString(word.name, MaterialTheme.colorScheme.primary, range)
                 } else {
                     AnnotatedString(word.name)
                 },
@@ -282,15 +292,11 @@ private fun SearchListItem(
             )
         },
         supportingContent = {
-            val index = word.translation.indexOf(searchText)
+            val range = word.translation.highlight(word.translation.normalized(), normalized)
 
             Text(
-                text = if (index != -1) {
-                    AnnotatedString(
-                        word.translation,
-                        MaterialTheme.colorScheme.primary,
-                        index..index + searchText.length
-                    )
+                text = if (range != null) {
+                    AnnotatedString(word.translation, MaterialTheme.colorScheme.primary, range)
                 } else {
                     AnnotatedString(word.translation)
                 },
@@ -42,6 +42,7 @@ import ru.dimarzio.rulearn2.compose.Sessions
 import ru.dimarzio.rulearn2.compose.SingleChoiceDialog
 import ru.dimarzio.rulearn2.compose.WordsListItem
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.utils.toast
 import ru.dimarzio.rulearn2.viewmodels.LevelViewModel
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
@@ -61,7 +62,8 @@ fun Level(
     onDifficultWordsClick: () -> Unit,
     onTypingReviewClick: () -> Unit,
     onGuessingReviewClick: () -> Unit,
-    words: Map<Int, Word>,
+    words: WordRows,
+    clock: () -> Long,
     player: MediaPlayer,
     tts: TextToSpeech,
     locale: Locale,
@@ -73,8 +75,8 @@ fun Level(
 
     val scrollButtonVisible by remember {
         derivedStateOf {
-            if (words.any { (_, word) -> word.rating >= 10 }) {
-                val lastIndex = words.values.indexOfLast { word -> word.learned && !word.skip }
+            if (words.countRows { rating >= 10 } > 0) {
+                val lastIndex = words.lastLearnedIndex()
                 lastIndex !in listState.layoutInfo.visibleItemsInfo.map(LazyListItemInfo::index)
             } else {
                 false
@@ -85,7 +87,7 @@ fun Level(
     val scrollButtonUp by remember {
         derivedStateOf {
             if (listState.layoutInfo.visibleItemsInfo.isNotEmpty()) {
-                val lastIndex = words.values.indexOfLast { word -> word.learned && !word.skip }
+                val lastIndex = words.lastLearnedIndex()
                 lastIndex < listState.layoutInfo.visibleItemsInfo.last().index
             } else {
                 false
@@ -126,12 +128,12 @@ fun Level(
                 onDifficultWordsClick = onDifficultWordsClick,
                 onTypingReviewClick = onTypingReviewClick,
                 onGuessingReviewClick = onGuessingReviewClick,
-                toLearnNumber = words.count { (_, word) -> !word.learned && !word.skip },
-                difficultNumber = words.count { (_, word) -> word.isDifficult },
-                toRepeatNumber = words.count { (_, word) -> word.isRepeat },
+                toLearnNumber = words.countRows { !learned && !skip },
+                difficultNumber = words.countRows { isDifficult },
+                toRepeatNumber = clock().let { now -> words.countRows { isRepeat(now) } },
                 scrollButtonVisible = scrollButtonVisible,
                 onScrollClick = {
-                    val lastIndex = words.values.indexOfLast { word -> word.learned && !word.skip }
+                    val lastIndex = words.lastLearnedIndex()
                     coroutineScope.launch {
                         listState.scrollToItem(lastIndex)
                     }
@@ -141,9 +143,9 @@ fun Level(
         }
     ) { innerPadding ->
         Column(modifier = Modifier.padding(innerPadding)) {
-            val learnedNumber = words.count { (_, word) -> word.learned && !word.skip }
+            val learnedNumber = words.countRows { learned && !skip }
 
-            val totalWords = words.count { (_, word) -> !word.skip }
+            val totalWords = words.countRows { !skip }
 
             Text(
                 text = "$learnedNumber/$totalWords learned",
@@ -155,6 +157,7 @@ fun Level(
             WordsList(
                 state = listState,
                 words = words,
+                clock = clock,
                 player = player,
                 tts = tts,
                 locale = locale,
@@ -165,7 +168,7 @@ fun Level(
         }
 
         val toRepeatNumber by remember(key1 = words) {
-            mutableIntStateOf(words.count { (_, word) -> word.isRepeat })
+            mutableIntStateOf(clock().let { now -> words.countRows { isRepeat(now) } })
         }
 
         LaunchedEffect(key1 = words) {
@@ -176,6 +179,19 @@ fun Level(
     }
 }
 
+// Index in the list of the last learned word, -1 if there is none.
+private fun WordRows.lastLearnedIndex(): Int {
+    var last = -1
+    var index = 0
+    forEachRow {
+        if (learned && !skip) {
+            last = index
+        }
+        index++
+    }
+    return last
+}
+
 @Composable
 private fun SortDialog(
     onDismissRequest: () -> Unit,
@@ -239,6 +255,7 @@ private fun TopBarActions(
 private fun WordsList(
     state: LazyListState,
     words: Map<Int, Word>,
+    clock: () -> Long,
     player: MediaPlayer,
     tts: TextToSpeech,
     locale: Locale,
@@ -246,10 +263,13 @@ private fun WordsList(
     onWordUpdated: (Int, Word, Word) -> Unit,
     onWordClick: (Int, String) -> Unit,
 ) {
+    val now = clock()
+
     LazyColumn(state = state) {
         items(words.toList()) { (id, word) ->
             WordsListItem(
                 word = word,
+                now = now,
                 onDeleteClick = { onWordRemoved(id, word) },
                 onDifficultClick = { onWordUpdated(id, word, word.copy(difficult = it)) },
                 onSkipClick = { onWordUpdated(id, word, word.copy(skip = it)) },
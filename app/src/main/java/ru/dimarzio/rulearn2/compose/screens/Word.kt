@@ -82,6 +82,7 @@ import kotlin.time.Duration.Companion.seconds
 fun Word(
     id: Int,
     word: Word,
+    clock: () -> Long,
     modified: Boolean,
     tts: TextToSpeech,
     locale: Locale,
@@ -185,8 +186,10 @@ fun Word(
                         .fillMaxWidth()
                         .height(IntrinsicSize.Max)
                 ) {
+                    val now = clock()
+
                     Checkboxes(
-                        repeat = word.isRepeat,
+                        repeat = word.isRepeat(now),
                         difficult = word.difficult,
                         skip = word.skip,
                         learned = word.learned,
@@ -196,8 +199,8 @@ fun Word(
 
                     RepeatInterval(
                         modifier = Modifier.fillMaxHeight(),
-                        lastlyRepeated = word.lastlyRepeated,
-                        repeatDuration = word.repeatDuration,
+                        lastlyRepeated = word.lastlyRepeated(now),
+                        repeatDuration = word.repeatDuration(now),
                         timeLapsed = word.secondsLapsed.seconds
                     )
                 }
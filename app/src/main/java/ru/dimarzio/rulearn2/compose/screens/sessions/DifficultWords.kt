@@ -9,7 +9,9 @@ import androidx.compose.material3.ExperimentalMaterial3Api
 import androidx.compose.material3.rememberBottomSheetScaffoldState
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
 import androidx.compose.runtime.rememberCoroutineScope
+import androidx.compose.runtime.rememberUpdatedState
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.platform.LocalContext
 import androidx.lifecycle.viewmodel.compose.viewModel
@@ -25,6 +27,7 @@ import ru.dimarzio.rulearn2.compose.SessionContainer
 import ru.dimarzio.rulearn2.compose.screens.sessions.tests.GuessingTest
 import ru.dimarzio.rulearn2.compose.screens.sessions.tests.TypingTest
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.tflite.TFLiteModel
 import ru.dimarzio.rulearn2.utils.navigate
@@ -56,7 +59,9 @@ fun DifficultWords(
     navigationEvents: Flow<Pair<String, SessionWord>>,
     getWord: (Int) -> Word?,
     onSettingsActionClick: () -> Unit,
-    courseWords: Map<Int, Word>,
+    courseWords: WordRows,
+    courseVersion: Int,
+    clock: () -> Long,
     otherLevels: Set<String>,
     handler: ErrorHandler,
     onNavigationIconClick: () -> Unit,
@@ -76,6 +81,7 @@ fun DifficultWords(
         scaffoldState = scaffoldState,
         label = memorizedWords.size.toString() + " memorized",
         words = memorizedWords,
+        clock = clock,
         player = player,
         tts = tts,
         locale = locale,
@@ -152,15 +158,19 @@ fun DifficultWords(
                     }
                 )
 
+                val currentWords by rememberUpdatedState(courseWords)
+                val currentVersion by rememberUpdatedState(courseVersion)
+
                 LaunchedEffect(Unit) {
-                    guessingTestViewModel.generateTranslations(currentId, currentWord, courseWords)
+                    guessingTestViewModel.generateTranslations(currentId, currentWord, currentWords, currentVersion)
                     navigationEvents.collect { (route, word) ->
                         if (route == SessionRoutes.GuessingTest.route) {
                             guessingTestViewModel.reverse()
                             guessingTestViewModel.generateTranslations(
                                 id = word.getId(),
                                 word = word.getWord(),
-                                courseWords = courseWords
+                                courseWords = currentWords,
+                                courseVersion = currentVersion
                             )
                         } else {
                             navController.navigateCleaning(route)
@@ -170,6 +180,7 @@ fun DifficultWords(
 
                 GuessingTest(
                     title = "Memorized: " + memorizedWords.size,
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
@@ -222,6 +233,7 @@ fun DifficultWords(
 
                 TypingTest(
                     title = "Memorized: " + memorizedWords.size,
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
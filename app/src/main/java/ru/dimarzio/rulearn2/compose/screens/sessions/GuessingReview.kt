@@ -25,6 +25,7 @@ import ru.dimarzio.rulearn2.compose.SessionContainer
 import ru.dimarzio.rulearn2.compose.screens.Word
 import ru.dimarzio.rulearn2.compose.screens.sessions.tests.GuessingTest
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.tflite.TFLiteModel
 import ru.dimarzio.rulearn2.utils.navigate
@@ -49,7 +50,9 @@ fun GuessingReview(
     onWordRemoved: (Int, Word) -> Unit,
     onWordUpdated: (Int, Word?, Word) -> Unit,
     handler: ErrorHandler,
-    courseWords: Map<Int, Word>,
+    courseWords: WordRows,
+    courseVersion: Int,
+    clock: () -> Long,
     otherLevels: Set<String>,
     onNavigationIconClick: () -> Unit,
     progress: Float,
@@ -70,6 +73,7 @@ fun GuessingReview(
         scaffoldState = scaffoldState,
         label = repeatedWords.size.toString() + " shown",
         words = repeatedWords,
+        clock = clock,
         player = player,
         tts = tts,
         locale = locale,
@@ -96,17 +100,20 @@ fun GuessingReview(
                     }
                 )
 
+                val currentWords by rememberUpdatedState(courseWords)
+                val currentVersion by rememberUpdatedState(courseVersion)
                 val currentEnded by rememberUpdatedState(ended)
 
                 LaunchedEffect(Unit) {
-                    guessingTestViewModel.generateTranslations(currentId, currentWord, courseWords)
+                    guessingTestViewModel.generateTranslations(currentId, currentWord, currentWords, currentVersion)
                     navigationEvents.collect { (_, word) ->
                         if (!currentEnded) {
                             guessingTestViewModel.reverse()
                             guessingTestViewModel.generateTranslations(
                                 id = word.getId(),
                                 word = word.getWord(),
-                                courseWords = courseWords,
+                                courseWords = currentWords,
+                                courseVersion = currentVersion,
                             )
                         }
                     }
@@ -114,6 +121,7 @@ fun GuessingReview(
 
                 GuessingTest(
                     title = "Repeated: " + repeatedWords.size,
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
@@ -9,7 +9,9 @@ import androidx.compose.material3.ExperimentalMaterial3Api
 import androidx.compose.material3.rememberBottomSheetScaffoldState
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
 import androidx.compose.runtime.rememberCoroutineScope
+import androidx.compose.runtime.rememberUpdatedState
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.platform.LocalContext
 import androidx.lifecycle.viewmodel.compose.viewModel
@@ -26,6 +28,7 @@ import ru.dimarzio.rulearn2.compose.screens.sessions.tests.GuessingTest
 import ru.dimarzio.rulearn2.compose.screens.sessions.tests.NewWord
 import ru.dimarzio.rulearn2.compose.screens.sessions.tests.TypingTest
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.tflite.TFLiteModel
 import ru.dimarzio.rulearn2.utils.deviceVolume
@@ -56,7 +59,9 @@ fun LearnNewWords(
     handler: ErrorHandler,
     getWord: (Int) -> Word?,
     onSettingsActionClick: () -> Unit,
-    courseWords: Map<Int, Word>,
+    courseWords: WordRows,
+    courseVersion: Int,
+    clock: () -> Long,
     otherLevels: Set<String>,
     onNavigationIconClick: () -> Unit,
     progress: Float,
@@ -75,6 +80,7 @@ fun LearnNewWords(
         scaffoldState = scaffoldState,
         label = learnedWords.size.toString() + " learned",
         words = learnedWords,
+        clock = clock,
         player = player,
         tts = tts,
         locale = locale,
@@ -112,6 +118,7 @@ fun LearnNewWords(
                 NewWord(
                     title = "Learned: " + learnedWords.size,
                     word = currentWord,
+                    clock = clock,
                     tts = tts,
                     locale = locale,
                     onNavigationIconClick = onNavigationIconClick,
@@ -143,15 +150,19 @@ fun LearnNewWords(
                     }
                 )
 
+                val currentWords by rememberUpdatedState(courseWords)
+                val currentVersion by rememberUpdatedState(courseVersion)
+
                 LaunchedEffect(Unit) {
-                    guessingTestViewModel.generateTranslations(currentId, currentWord, courseWords)
+                    guessingTestViewModel.generateTranslations(currentId, currentWord, currentWords, currentVersion)
                     navigationEvents.collect { (route, word) ->
                         if (route == SessionRoutes.GuessingTest.route) {
                             guessingTestViewModel.reverse()
                             guessingTestViewModel.generateTranslations(
                                 id = word.getId(),
                                 word = word.getWord(),
-                                courseWords = courseWords,
+                                courseWords = currentWords,
+                                courseVersion = currentVersion,
                             )
                         } else {
                             navController.navigateCleaning(route)
@@ -161,6 +172,7 @@ fun LearnNewWords(
 
                 GuessingTest(
                     title = "Learned: " + learnedWords.size,
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
@@ -213,6 +225,7 @@ fun LearnNewWords(
 
                 TypingTest(
                     title = "Learned: " + learnedWords.size,
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
@@ -48,6 +48,7 @@ fun TypingReview(
     onWordRemoved: (Int, Word) -> Unit,
     onWordUpdated: (Int, Word?, Word) -> Unit,
     courseWords: Map<Int, Word>,
+    clock: () -> Long,
     otherLevels: Set<String>,
     correctAnswers: Int,
     onNavigationIconClick: () -> Unit,
@@ -67,6 +68,7 @@ fun TypingReview(
         scaffoldState = scaffoldState,
         label = repeatedWords.size.toString() + " shown",
         words = repeatedWords,
+        clock = clock,
         player = player,
         tts = tts,
         locale = locale,
@@ -98,6 +100,7 @@ fun TypingReview(
 
                 TypingTest(
                     title = "Correct: $correctAnswers",
+                    clock = clock,
                     onNavigationIconClick = onNavigationIconClick,
                     onSettingsActionClick = onSettingsActionClick,
                     onRefreshActionClick = onRefreshRequested,
@@ -57,6 +57,7 @@ fun GuessingTest(
     progress: Float,
     reversed: Boolean,
     word: Word,
+    clock: () -> Long,
     onLearnedClick: () -> Unit,
     onDifficultClick: (Boolean) -> Unit,
     loading: Boolean,
@@ -111,6 +112,7 @@ fun GuessingTest(
                     Column {
                         WordIndicator(
                             word = word,
+                            now = clock(),
                             maxRating = maxRating
                         )
 
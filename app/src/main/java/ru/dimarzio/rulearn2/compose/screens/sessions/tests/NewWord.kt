@@ -52,6 +52,7 @@ import java.util.Locale
 fun NewWord(
     title: String,
     word: Word,
+    clock: () -> Long,
     tts: TextToSpeech,
     locale: Locale,
     onNavigationIconClick: () -> Unit,
@@ -138,6 +139,7 @@ fun NewWord(
                     Column {
                         WordIndicator(
                             word = word,
+                            now = clock(),
                             maxRating = maxRating
                         )
 
@@ -55,6 +55,7 @@ fun TypingTest(
     onSettingsActionClick: () -> Unit,
     progress: Float,
     word: Word,
+    clock: () -> Long,
     onLearnedClick: () -> Unit,
     onDifficultClick: (Boolean) -> Unit,
     inputValue: TextFieldValue,
@@ -109,6 +110,7 @@ fun TypingTest(
                     Column {
                         WordIndicator(
                             word = word,
+                            now = clock(),
                             maxRating = maxRating
                         )
 
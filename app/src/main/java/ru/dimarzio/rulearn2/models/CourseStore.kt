@@ -0,0 +1,521 @@
+package ru.dimarzio.rulearn2.models
+
+import ru.dimarzio.rulearn2.tflite.Features
+import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
+import java.io.File
+import java.util.BitSet
+
+// Words read as a map, and as rows for passes over many of them, which make no Word at all.
+interface WordRows : Map<Int, Word> {
+    // Id of the last row, null if there is none.
+    val lastId: Int?
+
+    // Ids in the order of the rows, as primitives.
+    fun ids(): IntArray
+
+    fun forEachRow(action: CourseStore.Row.() -> Unit)
+
+    fun countRows(predicate: CourseStore.Row.() -> Boolean): Int {
+        var count = 0
+        forEachRow { if (predicate()) count++ }
+        return count
+    }
+}
+
+/*
+ * Words of a course in columns of primitives, ordered by id.
+ * A Word is made the first time it is looked up and is kept, iterating makes them without keeping them;
+ * level names are interned, audio paths are resolved with the Word. Changes copy the columns they touch,
+ * so a store once given out never changes, just like the maps it replaced.
+ */
+class CourseStore private constructor(
+    private val audioFolder: File?, // Root of the paths kept unresolved
+    private val ids: IntArray,
+    private val names: Array<String>,
+    private val translations: Array<String>,
+    private val audios: Array<Any?>, // "a.mp3, b.mp3" as read or List<File>
+    private val levels: Array<String>,
+    private val accessed: LongArray,
+    private val dueAt: LongArray,
+    private val secondsLapsed: LongArray,
+    private val ratings: IntArray,
+    private val repetitions: IntArray,
+    private val correctAnswers: IntArray,
+    private val flags: ByteArray,
+    private val typeRepeats: ByteArray, // Session ordinal, -1 for none
+    private val hintsFractions: FloatArray,
+    private val successRates: FloatArray,
+    private val cache: Array<Word?>
+) : AbstractMap<Int, Word>(), WordRows {
+    companion object {
+        private const val SKIP = 1
+        private const val DIFFICULT = 2
+
+        val EMPTY = Builder(null, 0).build()
+
+        fun of(words: Map<Int, Word>): CourseStore {
+            if (words is CourseStore) {
+                return words
+            }
+
+            val builder = Builder(null, words.size)
+            words.entries.sortedBy(Map.Entry<Int, Word>::key).forEach { (id, word) -> builder.add(id, word) }
+            return builder.build()
+        }
+    }
+
+    // Grows the columns while reading; rows must come in ascending id order.
+    class Builder(private val audioFolder: File?, capacity: Int = 16) {
+        private var size = 0
+        private var ids = IntArray(capacity)
+        private var names = arrayOfNulls<String>(capacity)
+        private var translations = arrayOfNulls<String>(capacity)
+        private var audios = arrayOfNulls<Any>(capacity)
+        private var levels = arrayOfNulls<String>(capacity)
+        private var accessed = LongArray(capacity)
+        private var dueAt = LongArray(capacity)
+        private var secondsLapsed = LongArray(capacity)
+        private var ratings = IntArray(capacity)
+        private var repetitions = IntArray(capacity)
+        private var correctAnswers = IntArray(capacity)
+        private var flags = ByteArray(capacity)
+        private var typeRepeats = ByteArray(capacity)
+        private var hintsFractions = FloatArray(capacity)
+        private var successRates = FloatArray(capacity)
+        private var cache = arrayOfNulls<Word>(capacity)
+
+        private fun next(id: Int): Int {
+            require(size == 0 || ids[size - 1] < id) { "Ids must ascend." }
+
+            if (size == ids.size) {
+                val capacity = maxOf(16, size * 2)
+                ids = ids.copyOf(capacity)
+                names = names.copyOf(capacity)
+                translations = translations.copyOf(capacity)
+                audios = audios.copyOf(capacity)
+                levels = levels.copyOf(capacity)
+                accessed = accessed.copyOf(capacity)
+                dueAt = dueAt.copyOf(capacity)
+                secondsLapsed = secondsLapsed.copyOf(capacity)
+                ratings = ratings.copyOf(capacity)
+                repetitions = repetitions.copyOf(capacity)
+                correctAnswers = correctAnswers.copyOf(capacity)
+                flags = flags.copyOf(capacity)
+                typeRepeats = typeRepeats.copyOf(capacity)
+                hintsFractions = hintsFractions.copyOf(capacity)
+                successRates = successRates.copyOf(capacity)
+                cache = cache.copyOf(capacity)
+            }
+
+            ids[size] = id
+            return size++
+        }
+
+        fun add(
+            id: Int,
+            name: String,
+            translation: String,
+            audio: String?,
+            level: String,
+            accessed: Long,
+            skip: Boolean,
+            difficult: Boolean,
+            rating: Int,
+            repetitions: Int,
+            correctAnswers: Int,
+            secondsLapsed: Long,
+            typeRepeat: Int,
+            hintsFraction: Float,
+            successRate: Float
+        ) {
+            val i = next(id)
+            names[i] = name
+            translations[i] = translation
+            audios[i] = audio
+            levels[i] = level.intern()
+            this.accessed[i] = accessed
+            dueAt[i] = Word.dueAt(accessed, skip, rating, successRate)
+            this.secondsLapsed[i] = secondsLapsed
+            ratings[i] = rating
+            this.repetitions[i] = repetitions
+            this.correctAnswers[i] = correctAnswers
+            flags[i] = ((if (skip) SKIP else 0) or (if (difficult) DIFFICULT else 0)).toByte()
+            typeRepeats[i] = (if (typeRepeat in Session.entries.indices) typeRepeat else -1).toByte()
+            hintsFractions[i] = hintsFraction
+            successRates[i] = successRate
+            cache[i] = null
+        }
+
+        fun add(id: Int, word: Word) {
+            add(
+                id = id,
+                name = word.name,
+                translation = word.translation,
+                audio = null,
+                level = word.level,
+                accessed = word.accessed,
+                skip = word.skip,
+                difficult = word.difficult,
+                rating = word.rating,
+                repetitions = word.repetitions,
+                correctAnswers = word.correctAnswers,
+                secondsLapsed = word.secondsLapsed,
+                typeRepeat = word.typeRepeat?.ordinal ?: -1,
+                hintsFraction = word.hintsFraction,
+                successRate = word.successRate
+            )
+            audios[size - 1] = word.audios
+            cache[size - 1] = word
+        }
+
+        // The row of store as it is, keeping its Word and its audio unresolved if it is.
+        internal fun add(store: CourseStore, position: Int, level: String = store.levels[position]) {
+            val i = next(store.ids[position])
+            names[i] = store.names[position]
+            translations[i] = store.translations[position]
+            audios[i] = store.audios[position].let { audio ->
+                if (audio is String && store.audioFolder != audioFolder) store.resolve(audio) else audio
+            }
+            levels[i] = level
+            accessed[i] = store.accessed[position]
+            dueAt[i] = store.dueAt[position]
+            secondsLapsed[i] = store.secondsLapsed[position]
+            ratings[i] = store.ratings[position]
+            repetitions[i] = store.repetitions[position]
+            correctAnswers[i] = store.correctAnswers[position]
+            flags[i] = store.flags[position]
+            typeRepeats[i] = store.typeRepeats[position]
+            hintsFractions[i] = store.hintsFractions[position]
+            successRates[i] = store.successRates[position]
+            cache[i] = if (level === store.levels[position]) store.cache[position] else null
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        fun build() = CourseStore(
+            audioFolder,
+            ids.copyOf(size),
+            names.copyOf(size) as Array<String>,
+            translations.copyOf(size) as Array<String>,
+            audios.copyOf(size),
+            levels.copyOf(size) as Array<String>,
+            accessed.copyOf(size),
+            dueAt.copyOf(size),
+            secondsLapsed.copyOf(size),
+            ratings.copyOf(size),
+            repetitions.copyOf(size),
+            correctAnswers.copyOf(size),
+            flags.copyOf(size),
+            typeRepeats.copyOf(size),
+            hintsFractions.copyOf(size),
+            successRates.copyOf(size),
+            cache.copyOf(size)
+        )
+    }
+
+    // A cursor over the columns, moved from row to row by forEachRow.
+    inner class Row internal constructor() {
+        var position = 0
+            internal set
+
+        val id get() = ids[position]
+        val name get() = names[position]
+        val translation get() = translations[position]
+        val level get() = levels[position]
+        val accessed get() = this@CourseStore.accessed[position]
+        val rating get() = ratings[position]
+        val skip get() = flags[position].toInt() and SKIP != 0
+        val difficult get() = flags[position].toInt() and DIFFICULT != 0
+        val learned get() = rating >= 10 && !skip
+        val isDifficult get() = difficult && learned
+        val successRate get() = successRates[position]
+
+        val ratio: Double // As Word.ratio
+            get() {
+                val repeated = repetitions[position]
+                val correct = correctAnswers[position]
+                return if (repeated != 0 && correct != 0) {
+                    correct.toDouble() / repeated
+                } else {
+                    1.0
+                }
+            }
+
+        val word get() = word(position)
+
+        fun isRepeat(now: Long) = dueAt[position] <= now
+
+        fun toFeatures() = Features(
+            id = id,
+            repetitions = repetitions[position],
+            correctAnswers = correctAnswers[position],
+            rating = rating,
+            secondsLapsed = secondsLapsed[position],
+            typeRepeat = Session.entries.getOrNull(typeRepeats[position].toInt()),
+            hintsFraction = hintsFractions[position]
+        )
+    }
+
+    // Rows of the store in a given order, as a map in that order.
+    inner class View internal constructor(private val positions: IntArray) : AbstractMap<Int, Word>(), WordRows {
+        private val included by lazy { BitSet(ids.size).apply { positions.forEach { position -> set(position) } } }
+
+        override val size get() = positions.size
+
+        override val lastId get() = positions.lastOrNull()?.let { position -> ids[position] }
+
+        override val entries: Set<Map.Entry<Int, Word>> = object : AbstractSet<Map.Entry<Int, Word>>() {
+            override val size get() = positions.size
+
+            override fun iterator(): Iterator<Map.Entry<Int, Word>> =
+                positions.asSequence().map { position -> RowEntry(position) }.iterator()
+        }
+
+        override fun ids() = IntArray(positions.size) { i -> ids[positions[i]] }
+
+        override fun containsKey(key: Int) = positionOf(key).let { position -> position >= 0 && included[position] }
+
+        override fun get(key: Int) = if (containsKey(key)) word(positionOf(key)) else null
+
+        override fun forEachRow(action: Row.() -> Unit) {
+            val row = Row()
+            positions.forEach { position ->
+                row.position = position
+                row.action()
+            }
+        }
+    }
+
+    override val size get() = ids.size
+
+    override val lastId get() = ids.lastOrNull()
+
+    override val entries: Set<Map.Entry<Int, Word>> = object : AbstractSet<Map.Entry<Int, Word>>() {
+        override val size get() = ids.size
+
+        override fun iterator(): Iterator<Map.Entry<Int, Word>> =
+            ids.indices.asSequence().map { position -> RowEntry(position) }.iterator()
+    }
+
+    override fun ids() = ids.copyOf()
+
+    override fun containsKey(key: Int) = positionOf(key) >= 0
+
+    override fun get(key: Int) = positionOf(key).let { position -> if (position >= 0) word(position) else null }
+
+    override fun forEachRow(action: Row.() -> Unit) {
+        val row = Row()
+        for (position in ids.indices) {
+            row.position = position
+            row.action()
+        }
+    }
+
+    private fun positionOf(id: Int) = ids.binarySearch(id).coerceAtLeast(-1)
+
+    // The Word of a row is made when the value is read, and is not kept: passes over the entries read a few.
+    private inner class RowEntry(private val position: Int) : Map.Entry<Int, Word> {
+        override val key get() = ids[position]
+        override val value get() = cache[position] ?: make(position)
+
+        override fun equals(other: Any?) = other is Map.Entry<*, *> && other.key == key && other.value == value
+
+        override fun hashCode() = key.hashCode() xor value.hashCode()
+
+        override fun toString() = "$key=$value"
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun audiosAt(position: Int) = when (val audio = audios[position]) {
+        is String -> resolve(audio)
+        else -> audio as List<File>?
+    }
+
+    private fun resolve(audio: String) = audioFolder?.let { folder ->
+        audio.split(",", ";").map { name -> File(folder, name.trim()) }
+    }
+
+    private fun make(position: Int) = Word(
+        name = names[position],
+        translation = translations[position],
+        audios = audiosAt(position),
+        level = levels[position],
+        accessed = accessed[position],
+        difficult = flags[position].toInt() and DIFFICULT != 0,
+        skip = flags[position].toInt() and SKIP != 0,
+        rating = ratings[position],
+        repetitions = repetitions[position],
+        correctAnswers = correctAnswers[position],
+        secondsLapsed = secondsLapsed[position],
+        typeRepeat = Session.entries.getOrNull(typeRepeats[position].toInt()),
+        hintsFraction = hintsFractions[position],
+        successRate = successRates[position]
+    )
+
+    // Words are immutable, a race only makes one twice.
+    private fun word(position: Int) = cache[position] ?: make(position).also { word -> cache[position] = word }
+
+    private inline fun rebuild(capacity: Int, folder: File? = audioFolder, block: (Builder) -> Unit) =
+        Builder(folder, capacity).also(block).build()
+
+    // This one with the words of other, which win on the same ids.
+    operator fun plus(other: CourseStore): CourseStore {
+        if (other.isEmpty()) {
+            return this
+        }
+
+        return rebuild(size + other.size, audioFolder ?: other.audioFolder) { builder ->
+            var i = 0
+            var j = 0
+            while (i < size || j < other.size) {
+                when {
+                    j == other.size || i < size && ids[i] < other.ids[j] -> builder.add(this, i++)
+                    i == size || other.ids[j] < ids[i] -> builder.add(other, j++)
+                    else -> {
+                        builder.add(other, j++)
+                        i++
+                    }
+                }
+            }
+        }
+    }
+
+    // Replaces the word or adds it in order of id; a replaced row copies only the columns that change.
+    fun with(id: Int, word: Word): CourseStore {
+        val position = positionOf(id)
+        if (position < 0) {
+            return this + Builder(null, 1).apply { add(id, word) }.build()
+        }
+
+        fun IntArray.with(value: Int) = if (this[position] == value) this else copyOf().also { it[position] = value }
+        fun LongArray.with(value: Long) = if (this[position] == value) this else copyOf().also { it[position] = value }
+        fun ByteArray.with(value: Byte) = if (this[position] == value) this else copyOf().also { it[position] = value }
+        fun FloatArray.with(value: Float) =
+            if (this[position].toRawBits() == value.toRawBits()) this else copyOf().also { it[position] = value }
+
+        fun <T> Array<T>.with(value: T) = if (this[position] == value) this else copyOf().also { it[position] = value }
+
+        return CourseStore(
+            audioFolder,
+            ids,
+            names.with(word.name),
+            translations.with(word.translation),
+            if (audiosAt(position) == word.audios) audios else audios.copyOf().also { it[position] = word.audios },
+            levels.with(word.level.intern()),
+            accessed.with(word.accessed),
+            dueAt.with(word.dueAt),
+            secondsLapsed.with(word.secondsLapsed),
+            ratings.with(word.rating),
+            repetitions.with(word.repetitions),
+            correctAnswers.with(word.correctAnswers),
+            flags.with(((if (word.skip) SKIP else 0) or (if (word.difficult) DIFFICULT else 0)).toByte()),
+            typeRepeats.with((word.typeRepeat?.ordinal ?: -1).toByte()),
+            hintsFractions.with(word.hintsFraction),
+            successRates.with(word.successRate),
+            cache.copyOf().also { it[position] = word }
+        )
+    }
+
+    operator fun minus(id: Int) = if (containsKey(id)) selectRows { this.id != id } else this
+
+    // Rows passing predicate in a store of their own.
+    fun selectRows(predicate: Row.() -> Boolean): CourseStore {
+        val selected = BitSet(size)
+        val row = Row()
+        for (position in ids.indices) {
+            row.position = position
+            if (row.predicate()) {
+                selected.set(position)
+            }
+        }
+
+        if (selected.cardinality() == size) {
+            return this
+        }
+
+        return rebuild(selected.cardinality()) { builder ->
+            var position = selected.nextSetBit(0)
+            while (position >= 0) {
+                builder.add(this, position)
+                position = selected.nextSetBit(position + 1)
+            }
+        }
+    }
+
+    // Stable sort by an Int key: keys and positions are packed into longs and sorted as primitives.
+    fun sortedRows(key: Row.() -> Int): View {
+        val packed = LongArray(size)
+        val row = Row()
+        for (position in ids.indices) {
+            row.position = position
+            packed[position] = (row.key().toLong() shl 32) or position.toLong()
+        }
+        packed.sort()
+
+        return View(IntArray(size) { i -> packed[i].toInt() })
+    }
+
+    fun <T : Comparable<T>> sortedRowsWith(selector: Row.() -> T): View {
+        val row = Row()
+        val keys = ids.indices.map { position -> row.position = position; row.selector() }
+        return View(ids.indices.sortedBy(keys::get).toIntArray())
+    }
+
+    fun view() = View(IntArray(size) { position -> position })
+
+    fun renameLevel(from: String, to: String): CourseStore {
+        val interned = to.intern()
+        return rebuild(size) { builder ->
+            for (position in ids.indices) {
+                builder.add(this, position, if (levels[position] == from) interned else levels[position])
+            }
+        }
+    }
+
+    fun toFeatures(): List<Features> {
+        val features = ArrayList<Features>(size)
+        forEachRow { features.add(toFeatures()) }
+        return features
+    }
+
+    private fun sameAudio(other: CourseStore, position: Int) =
+        audios[position] == other.audios[position] || audiosAt(position) == other.audiosAt(position)
+
+    // Column by column, so that state holders compare stores without making their words.
+    override fun equals(other: Any?) = when {
+        other === this -> true
+        other is CourseStore -> ids.contentEquals(other.ids) &&
+                names.contentEquals(other.names) &&
+                translations.contentEquals(other.translations) &&
+                levels.contentEquals(other.levels) &&
+                accessed.contentEquals(other.accessed) &&
+                secondsLapsed.contentEquals(other.secondsLapsed) &&
+                ratings.contentEquals(other.ratings) &&
+                repetitions.contentEquals(other.repetitions) &&
+                correctAnswers.contentEquals(other.correctAnswers) &&
+                flags.contentEquals(other.flags) &&
+                typeRepeats.contentEquals(other.typeRepeats) &&
+                hintsFractions.contentEquals(other.hintsFractions) &&
+                successRates.contentEquals(other.successRates) &&
+                (audios === other.audios || ids.indices.all { position -> sameAudio(other, position) })
+
+        else -> super.equals(other)
+    }
+
+    // From the columns equals compares, so hashing makes no Word either; it differs from the hash code of other maps.
+    override fun hashCode(): Int {
+        var result = ids.contentHashCode()
+        result = 31 * result + names.contentHashCode()
+        result = 31 * result + translations.contentHashCode()
+        result = 31 * result + levels.contentHashCode()
+        result = 31 * result + accessed.contentHashCode()
+        result = 31 * result + secondsLapsed.contentHashCode()
+        result = 31 * result + ratings.contentHashCode()
+        result = 31 * result + repetitions.contentHashCode()
+        result = 31 * result + correctAnswers.contentHashCode()
+        result = 31 * result + flags.contentHashCode()
+        result = 31 * result + typeRepeats.contentHashCode()
+        result = 31 * result + hintsFractions.contentHashCode()
+        result = 31 * result + successRates.contentHashCode()
+        return result
+    }
+}
\ No newline at end of file
@@ -4,9 +4,8 @@ import ru.dimarzio.rulearn2.tflite.Features
 import ru.dimarzio.rulearn2.utils.normalized
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
 import java.io.File
+import kotlin.math.ceil
 import kotlin.time.Duration
-import kotlin.time.Duration.Companion.days
-import kotlin.time.Duration.Companion.hours
 import kotlin.time.Duration.Companion.milliseconds
 
 data class Word( // Kotlin Prototype
@@ -26,42 +25,25 @@ data class Word( // Kotlin Prototype
     val hintsFraction: Float, // hint_frac
     val successRate: Float
 ) {
-    private val Double.months get() = times(30).days
-
-    private val repeatInterval
-        get() = if (!skip) {
-            val rate = successRate.toDouble()
-            when (rating) {
-                10 -> (1 * rate).hours
-                11 -> (5 * rate).hours
-                12 -> (1 * rate).days
-                13 -> (5 * rate).days
-                14 -> (25 * rate).days
-                MAX_RATING -> (4 * rate).months
-                else -> Duration.INFINITE
-            }
-        } else {
-            Duration.INFINITE
-        }
-
     val normalizedName = name.normalized()
 
-    val lastlyRepeated
-        get() = if (accessed != 0L) {
-            (System.currentTimeMillis() - accessed).milliseconds
-        } else {
-            Duration.INFINITE
-        }
+    // Epoch millis since which the word is to repeat, so being due is one comparison with now.
+    val dueAt = dueAt(accessed, skip, rating, successRate)
+
+    fun lastlyRepeated(now: Long) = if (accessed != 0L) {
+        (now - accessed).milliseconds
+    } else {
+        Duration.INFINITE
+    }
 
-    val repeatDuration
-        get() = if (repeatInterval.isFinite() || lastlyRepeated.isFinite()) {
-            (repeatInterval - lastlyRepeated).coerceAtLeast(Duration.ZERO)
-        } else {
-            Duration.INFINITE
-        }
+    fun repeatDuration(now: Long) = when {
+        dueAt == NEVER -> Duration.INFINITE
+        dueAt <= now -> Duration.ZERO
+        else -> (dueAt - now).milliseconds
+    }
 
+    fun isRepeat(now: Long) = dueAt <= now
 
-    val isRepeat get() = repeatDuration == Duration.ZERO
     val isDifficult = difficult && rating >= 10 && !skip
     val learned = rating >= 10 && !skip
 
@@ -74,6 +56,39 @@ data class Word( // Kotlin Prototype
 
     companion object {
         const val MAX_RATING = 15
+        const val NEVER = Long.MAX_VALUE
+
+        private const val HOUR = 3_600_000.0
+        private const val DAY = 24 * HOUR
+
+        // The default clock of view models, which pass it down; words are given the time and never read it.
+        fun now() = System.currentTimeMillis()
+
+        // In millis rounded up, as DUE_AT of Database computes it, null if never due.
+        private fun repeatInterval(skip: Boolean, rating: Int, successRate: Float) =
+            if (!skip && !successRate.isNaN()) {
+                val rate = successRate.toDouble()
+                when (rating) {
+                    10 -> 1 * rate * HOUR
+                    11 -> 5 * rate * HOUR
+                    12 -> 1 * rate * DAY
+                    13 -> 5 * rate * DAY
+                    14 -> 25 * rate * DAY
+                    MAX_RATING -> 4 * rate * 30 * DAY
+                    else -> null
+                }?.let { interval -> ceil(interval).toLong() }
+            } else {
+                null
+            }
+
+        fun dueAt(accessed: Long, skip: Boolean, rating: Int, successRate: Float) =
+            repeatInterval(skip, rating, successRate).let { interval ->
+                when {
+                    interval == null -> NEVER
+                    accessed == 0L -> Long.MIN_VALUE // Due, but never repeated
+                    else -> accessed + interval
+                }
+            }
     }
 
     // New word
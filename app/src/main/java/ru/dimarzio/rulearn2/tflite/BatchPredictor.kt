@@ -0,0 +1,57 @@
+package ru.dimarzio.rulearn2.tflite
+
+import org.tensorflow.lite.Interpreter
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/*
+ * Runs predictions in chunks of a fixed size through buffers allocated once,
+ * so the input tensor is resized a single time and no per-word arrays are created.
+ */
+class BatchPredictor(private val interpreter: Interpreter, private val provider: FeaturesProvider) {
+    companion object {
+        const val BATCH = 256
+    }
+
+    private val input = ByteBuffer
+        .allocateDirect(BATCH * provider.size * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+    private val output = ByteBuffer
+        .allocateDirect(BATCH * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+
+    private var resized = false
+
+    @Synchronized
+    fun predict(contexts: List<Features>): FloatArray? {
+        val predictions = FloatArray(contexts.size)
+
+        val result = runCatching {
+            if (!resized) {
+                interpreter.resizeInput(0, intArrayOf(BATCH, provider.size))
+                interpreter.allocateTensors()
+                resized = true
+            }
+
+            for (from in contexts.indices step BATCH) {
+                val to = minOf(from + BATCH, contexts.size)
+
+                input.clear()
+                for (i in from until to) {
+                    provider.provide(contexts[i], input)
+                }
+                input.rewind() // Rows after `to` are left from the previous chunk and ignored.
+
+                output.clear()
+                interpreter.run(input, output)
+
+                for (i in from until to) {
+                    val prediction = output.getFloat((i - from) * Float.SIZE_BYTES)
+                    predictions[i] = prediction.takeUnless { it.isNaN() } ?: 1f
+                }
+            }
+        }
+
+        return if (result.isSuccess) predictions else null
+    }
+}
\ No newline at end of file
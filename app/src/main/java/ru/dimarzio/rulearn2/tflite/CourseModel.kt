@@ -10,6 +10,8 @@ class CourseModel(
 ) : TFLiteModel {
     private val interpreter = Interpreter(File(folder, "$course.tflite"))
     private val ckpt = File(folder, "$course.ckpt")
+    private val predictor = BatchPredictor(interpreter, provider)
+    private val trainer = Trainer(interpreter, provider, predictor)
 
     init {
         if (ckpt.exists()) { // Restoring weights.
@@ -21,38 +23,16 @@ class CourseModel(
     }
 
     override fun predict(contexts: List<Features>): FloatArray? {
-        val input = Array(contexts.size) { i -> provider.provide(contexts[i]) }
-
-        val output = Array(contexts.size) { FloatArray(1) }
-        runCatching { interpreter.run(input, output) }.onFailure { return null }
-
-        return FloatArray(contexts.size) { i -> output[i][0].takeUnless { it.isNaN() } ?: 1f }
+        return predictor.predict(contexts)
     }
 
     override fun predict(context: Features): Float? {
         return predict(listOf(context))?.single()
     }
 
-    override fun train(contexts: List<Features>): Boolean {
+    override fun train(contexts: List<Features>, onEpoch: (progress: Float) -> Unit): Boolean {
         val result = runCatching {
-            val filtered = contexts.filter { context -> context.repetitions > 0 }
-            val batches = filtered.shuffled().chunked(32).map { batch ->
-                mapOf(
-                    "x" to Array(batch.size) { i -> provider.provide(batch[i]) },
-                    "y" to Array(batch.size) { i ->
-                        floatArrayOf(batch[i].correctAnswers.toFloat() / batch[i].repetitions)
-                    }
-                )
-            }
-
-            for (epoch in 1..100) {
-                for (batchInputs in batches) {
-                    interpreter.runSignature(batchInputs, emptyMap(), "train")
-                }
-            }
-
-            val saveInputs = mapOf("checkpoint_path" to ckpt.path)
-            interpreter.runSignature(saveInputs, emptyMap(), "save")
+            trainer.train(contexts, ckpt, onEpoch) // Best weights end up in ckpt.
         }
 
         return result.isSuccess
@@ -36,8 +36,8 @@ class CourseModelProxy( // GoF Proxy
         }
     }
 
-    override fun train(contexts: List<Features>): Boolean {
-        return model?.train(contexts) == true
+    override fun train(contexts: List<Features>, onEpoch: (progress: Float) -> Unit): Boolean {
+        return model?.train(contexts, onEpoch) == true
     }
 
     override fun getName(): String {
@@ -25,36 +25,20 @@ class DefaultModel(private val provider: FeaturesProvider, assets: AssetManager)
         }
     }
 
-    override fun predict(contexts: List<Features>): FloatArray? {
-        val input = Array(contexts.size) { i -> provider.provide(contexts[i]) }
-
-        val output = Array(contexts.size) { FloatArray(1) }
-        runCatching { interpreter.run(input, output) }.onFailure { return null }
+    private val predictor = BatchPredictor(interpreter, provider)
+    private val trainer = Trainer(interpreter, provider, predictor)
 
-        return FloatArray(contexts.size) { i -> output[i][0].takeUnless { it.isNaN() } ?: 1f }
+    override fun predict(contexts: List<Features>): FloatArray? {
+        return predictor.predict(contexts)
     }
 
     override fun predict(context: Features): Float? {
         return predict(listOf(context))?.single()
     }
 
-    override fun train(contexts: List<Features>): Boolean {
+    override fun train(contexts: List<Features>, onEpoch: (progress: Float) -> Unit): Boolean {
         val result = runCatching {
-            val filtered = contexts.filter { context -> context.repetitions > 0 }
-            val batches = filtered.shuffled().chunked(32).map { batch ->
-                mapOf(
-                    "x" to Array(batch.size) { i -> provider.provide(batch[i]) },
-                    "y" to Array(batch.size) { i ->
-                        floatArrayOf(batch[i].correctAnswers.toFloat() / batch[i].repetitions)
-                    }
-                )
-            }
-
-            for (epoch in 1..100) {
-                for (batchInputs in batches) {
-                    interpreter.runSignature(batchInputs, emptyMap(), "train")
-                }
-            }
+            trainer.train(contexts, null, onEpoch) // Saved by the caller, see save().
         }
 
         return result.isSuccess
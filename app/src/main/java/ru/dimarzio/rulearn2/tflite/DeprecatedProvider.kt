@@ -1,10 +1,14 @@
 package ru.dimarzio.rulearn2.tflite
 
+import java.nio.ByteBuffer
+
 class DeprecatedProvider : FeaturesProvider {
-    override fun provide(features: Features) = floatArrayOf(
-        features.id.toFloat(),
-        features.rating.toFloat(),
-        features.repetitions.toFloat(),
-        features.secondsLapsed.toFloat()
-    )
+    override val size = 4
+
+    override fun provide(features: Features, into: ByteBuffer) {
+        into.putFloat(features.id.toFloat())
+        into.putFloat(features.rating.toFloat())
+        into.putFloat(features.repetitions.toFloat())
+        into.putFloat(features.secondsLapsed.toFloat())
+    }
 }
\ No newline at end of file
@@ -1,5 +1,18 @@
 package ru.dimarzio.rulearn2.tflite
 
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
 interface FeaturesProvider { // GoF Strategy
-    fun provide(features: Features): FloatArray
+    val size: Int // Features per word
+
+    // Puts size floats at the buffer position.
+    fun provide(features: Features, into: ByteBuffer)
+
+    fun provide(features: Features): FloatArray {
+        val buffer = ByteBuffer.allocate(size * Float.SIZE_BYTES).order(ByteOrder.nativeOrder())
+        provide(features, buffer)
+
+        return FloatArray(size) { i -> buffer.getFloat(i * Float.SIZE_BYTES) }
+    }
 }
\ No newline at end of file
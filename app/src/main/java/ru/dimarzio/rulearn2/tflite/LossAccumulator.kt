@@ -0,0 +1,65 @@
+package ru.dimarzio.rulearn2.tflite
+
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+/*
+ * Running sums behind Loss of ratio against successRate,
+ * so that adding, removing or replacing a word costs O(1).
+ */
+class LossAccumulator {
+    private var count = 0
+    private var absErrors = 0.0
+    private var squaredErrors = 0.0
+    private var ratios = 0.0
+    private var squaredRatios = 0.0
+
+    val loss: Loss
+        get() = if (count > 0) {
+            val ssTot = squaredRatios - ratios * ratios / count
+            Loss(
+                mae = absErrors / count,
+                rmse = sqrt(squaredErrors.coerceAtLeast(0.0) / count),
+                r2 = if (ssTot > EPSILON) 1.0 - squaredErrors / ssTot else 1.0
+            )
+        } else {
+            Loss(0.0, 0.0, 0.0)
+        }
+
+    companion object {
+        private const val EPSILON = 1e-9 // Sums drift, so ssTot is never exactly 0.
+    }
+
+    private fun accumulate(ratio: Double, successRate: Float, sign: Int) {
+        val error = ratio - successRate
+
+        count += sign
+        absErrors += sign * abs(error)
+        squaredErrors += sign * error * error
+        ratios += sign * ratio
+        squaredRatios += sign * ratio * ratio
+    }
+
+    private fun accumulate(word: Word, sign: Int) = accumulate(word.ratio, word.successRate, sign)
+
+    fun add(word: Word) = accumulate(word, 1)
+
+    fun addAll(words: WordRows) = words.forEachRow { accumulate(ratio, successRate, 1) }
+
+    fun remove(word: Word) = accumulate(word, -1)
+
+    fun replace(old: Word, new: Word) {
+        remove(old)
+        add(new)
+    }
+
+    fun clear() {
+        count = 0
+        absErrors = 0.0
+        squaredErrors = 0.0
+        ratios = 0.0
+        squaredRatios = 0.0
+    }
+}
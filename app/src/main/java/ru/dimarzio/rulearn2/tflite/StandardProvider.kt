@@ -1,16 +1,19 @@
 package ru.dimarzio.rulearn2.tflite
 
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
+import java.nio.ByteBuffer
 
 class StandardProvider : FeaturesProvider {
-    override fun provide(features: Features) = floatArrayOf(
-        if (features.typeRepeat == Session.LearnNewWords) 1f else 0f, // enc__type_repeat_0
-        if (features.typeRepeat == Session.DifficultWords) 1f else 0f, // enc__type_repeat_1
-        if (features.typeRepeat == Session.TypingReview) 1f else 0f, // enc__type_repeat_2
-        if (features.typeRepeat == Session.GuessingReview) 1f else 0f, // enc__type_repeat_3
-        features.secondsLapsed.toFloat(), // log__s_lapsed
-        features.id.toFloat(), // remainder__id
-        features.rating.toFloat(), // remainder__cur_rating
-        features.hintsFraction // remainder__hint_frac
-    )
+    override val size = 8
+
+    override fun provide(features: Features, into: ByteBuffer) {
+        into.putFloat(if (features.typeRepeat == Session.LearnNewWords) 1f else 0f) // enc__type_repeat_0
+        into.putFloat(if (features.typeRepeat == Session.DifficultWords) 1f else 0f) // enc__type_repeat_1
+        into.putFloat(if (features.typeRepeat == Session.TypingReview) 1f else 0f) // enc__type_repeat_2
+        into.putFloat(if (features.typeRepeat == Session.GuessingReview) 1f else 0f) // enc__type_repeat_3
+        into.putFloat(features.secondsLapsed.toFloat()) // log__s_lapsed
+        into.putFloat(features.id.toFloat()) // remainder__id
+        into.putFloat(features.rating.toFloat()) // remainder__cur_rating
+        into.putFloat(features.hintsFraction) // remainder__hint_frac
+    }
 }
\ No newline at end of file
@@ -4,7 +4,7 @@ interface TFLiteModel : AutoCloseable { // GoF Flyweight
     fun predict(contexts: List<Features>): FloatArray?
     fun predict(context: Features): Float?
 
-    fun train(contexts: List<Features>): Boolean
+    fun train(contexts: List<Features>, onEpoch: (progress: Float) -> Unit = {}): Boolean
 
     fun getName(): String
     fun isLoaded(): Boolean
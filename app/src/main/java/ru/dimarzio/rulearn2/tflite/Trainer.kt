@@ -0,0 +1,148 @@
+package ru.dimarzio.rulearn2.tflite
+
+import org.tensorflow.lite.Interpreter
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/*
+ * Runs the "train" signature over reusable batch arrays and holds out a part of the words,
+ * stopping once the loss on them has not improved for a few epochs.
+ * Arrays are used rather than ByteBuffers so that the signature can infer the batch shape.
+ */
+class Trainer(
+    private val model: Model,
+    private val provider: FeaturesProvider,
+    private val batch: Int = BATCH
+) {
+    // The part of the interpreter training needs.
+    interface Model {
+        fun predict(contexts: List<Features>): FloatArray?
+        fun run(signature: String, inputs: Map<String, Any>)
+    }
+
+    // Predictions may be asked for meanwhile, the predictor guards the interpreter.
+    constructor(
+        interpreter: Interpreter,
+        provider: FeaturesProvider,
+        predictor: BatchPredictor,
+        batch: Int = BATCH
+    ) : this(
+        object : Model {
+            override fun predict(contexts: List<Features>) = predictor.predict(contexts)
+
+            override fun run(signature: String, inputs: Map<String, Any>) = synchronized(predictor) {
+                interpreter.runSignature(inputs, emptyMap(), signature)
+            }
+        },
+        provider,
+        batch
+    )
+
+    companion object {
+        const val BATCH = 32
+        const val MAX_EPOCHS = 100
+        const val PATIENCE = 5
+        const val VALIDATION = 0.1
+        const val MIN_VALIDATION = 10 // Below that every word is trained on.
+        const val MIN_DELTA = 1e-4
+    }
+
+    private val row = ByteBuffer.allocate(provider.size * Float.SIZE_BYTES).order(ByteOrder.nativeOrder())
+    private val x = Array(batch) { FloatArray(provider.size) }
+    private val y = Array(batch) { FloatArray(1) }
+
+    private var xRest = emptyArray<FloatArray>() // Last, incomplete batch
+    private var yRest = emptyArray<FloatArray>()
+
+    private val Features.label get() = correctAnswers.toFloat() / repetitions
+
+    /*
+     * Best weights are kept in checkpoint, if any, and restored at the end, cancelled or not.
+     * With no words held out there is no best epoch: training stops once the loss on the trained words
+     * levels off and the last weights are saved.
+     * onEpoch gets progress in 0..1 and may throw to cancel.
+     */
+    fun train(contexts: List<Features>, checkpoint: File?, onEpoch: (Float) -> Unit) {
+        val filtered = contexts.filter { context -> context.repetitions > 0 }.shuffled()
+
+        val validationSize = (filtered.size * VALIDATION).toInt()
+        val validation = if (validationSize >= MIN_VALIDATION) filtered.take(validationSize) else emptyList()
+        val training = filtered.drop(validation.size)
+        val monitored = validation.ifEmpty { training }
+        val bestCheckpoint = checkpoint?.takeIf { validation.isNotEmpty() }
+
+        val rest = training.size % batch
+        if (xRest.size != rest) {
+            xRest = Array(rest) { FloatArray(provider.size) }
+            yRest = Array(rest) { FloatArray(1) }
+        }
+
+        var best = validate(monitored)
+        var sinceBest = 0
+        bestCheckpoint?.let(::save)
+
+        try {
+            for (epoch in 1..MAX_EPOCHS) {
+                fit(training)
+
+                val loss = validate(monitored)
+                if (loss < best - MIN_DELTA) {
+                    best = loss
+                    sinceBest = 0
+                    bestCheckpoint?.let(::save)
+                } else if (monitored.isNotEmpty() && ++sinceBest >= PATIENCE) {
+                    break
+                }
+
+                onEpoch(epoch.toFloat() / MAX_EPOCHS)
+            }
+        } finally {
+            bestCheckpoint?.let(::restore)
+        }
+
+        if (bestCheckpoint == null) {
+            checkpoint?.let(::save)
+        }
+
+        onEpoch(1f)
+    }
+
+    // One pass over the words.
+    private fun fit(training: List<Features>) {
+        for (from in training.indices step batch) {
+            val size = minOf(batch, training.size - from)
+            val inputs = if (size == batch) x else xRest
+            val labels = if (size == batch) y else yRest
+
+            for (i in 0 until size) {
+                val context = training[from + i]
+                row.clear()
+                provider.provide(context, row)
+                for (j in 0 until provider.size) {
+                    inputs[i][j] = row.getFloat(j * Float.SIZE_BYTES)
+                }
+                labels[i][0] = context.label
+            }
+
+            model.run("train", mapOf("x" to inputs, "y" to labels))
+        }
+    }
+
+    // Mean squared error of the given words, 0 if there are none.
+    private fun validate(validation: List<Features>): Double {
+        if (validation.isEmpty()) {
+            return 0.0
+        }
+
+        val predictions = model.predict(validation) ?: error("Prediction failed.")
+        return validation.indices.sumOf { i ->
+            val error = (predictions[i] - validation[i].label).toDouble()
+            error * error
+        } / validation.size
+    }
+
+    private fun save(to: File) = model.run("save", mapOf("checkpoint_path" to to.path))
+
+    private fun restore(from: File) = model.run("restore", mapOf("checkpoint_path" to from.path))
+}
\ No newline at end of file
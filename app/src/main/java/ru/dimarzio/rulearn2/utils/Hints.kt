@@ -0,0 +1,85 @@
+package ru.dimarzio.rulearn2.utils
+
+/*
+ * Normalized text, which keeps for every prefix of the original the length of its normalized() form.
+ * Built once in linear time, so hints need no normalization per prefix.
+ */
+private class Folded(folds: List<String>) {
+    val text: String // Folds joined, not trimmed yet
+    val lead: Int // Leading whitespace of text
+    val lengths: IntArray // lengths[i] is normalized().length of the first i original chars
+
+    init {
+        val ends = IntArray(folds.size + 1)
+        val builder = StringBuilder()
+        folds.forEachIndexed { i, fold ->
+            builder.append(fold)
+            ends[i + 1] = builder.length
+        }
+        text = builder.toString()
+
+        lead = text.indexOfFirst { char -> !char.isWhitespace() }.takeIf { it != -1 } ?: text.length
+
+        var end = lead // After the last non whitespace char so far
+        var position = 0
+        lengths = IntArray(ends.size) { i ->
+            while (position < ends[i]) {
+                if (!text[position].isWhitespace()) {
+                    end = position + 1
+                }
+                position++
+            }
+
+            end - lead
+        }
+    }
+
+    val normalized get() = text.substring(lead, lead + lengths.last())
+
+    // Length of the longest prefix of text after lead, which is also a prefix of other.
+    fun matching(other: String): Int {
+        var i = 0
+        while (lead + i < text.length && i < other.length && text[lead + i] == other[i]) {
+            i++
+        }
+
+        return i
+    }
+}
+
+private fun String.folded() = charFolds()?.let(::Folded)
+
+/*
+ * Papa's hint: the word up to the first char after the longest correct normalized prefix of the input,
+ * with harakat of the correct part included. The whole word if that prefix ends inside a char's fold.
+ * Null if either string has chars out of the fold table.
+ */
+fun papasHint(input: String, word: String): String? {
+    val typed = input.folded() ?: return null
+    val folded = word.folded() ?: return null
+
+    val normalized = folded.normalized
+    val correct = minOf(typed.matching(normalized), typed.lengths.last())
+
+    if (correct !in folded.lengths) {
+        return word
+    }
+
+    val next = folded.lengths.indexOfFirst { length -> length > correct }
+    return if (next != -1) word.substring(0, next) else word
+}
+
+/*
+ * Default hint: as many chars of the word as there are in the longest input prefix,
+ * which normalized is a prefix of the normalized word, and one more.
+ * Null if either string has chars out of the fold table.
+ */
+fun typingHint(input: String, word: String): String? {
+    val typed = input.folded() ?: return null
+    val folded = word.folded() ?: return null
+
+    val correct = typed.matching(folded.normalized)
+    val match = typed.lengths.indexOfLast { length -> length <= correct }
+
+    return word.take(match + 1)
+}
@@ -1,6 +1,18 @@
 package ru.dimarzio.rulearn2.utils
 
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.zip.CRC32
+
+private const val BUFFER_SIZE = 1 shl 16
+private const val COPY_BUFFER_SIZE = 1 shl 20
+private const val TEMP_SUFFIX = ".tmp"
+private const val WRITING_MARK = ".writing"
 
 fun ImageFile(path: String): File? { // 'class'
     val png = File("$path.png")
@@ -13,4 +25,86 @@ fun ImageFile(path: String): File? { // 'class'
         jpeg.canRead() -> jpeg
         else -> null
     }
+}
+
+// As ImageFile("$folder/$name"), looked up in the listed names of folder instead of the file system.
+fun ImageFile(folder: File, name: String, names: Set<String>): File? {
+    return listOf("png", "jpg", "jpeg")
+        .map { extension -> "$name.$extension" }
+        .firstOrNull(names::contains)
+        ?.let { image -> File(folder, image) }
+}
+
+fun File.crc32(): Long {
+    val crc = CRC32()
+    val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+
+    FileInputStream(this).channel.use { channel ->
+        while (channel.read(buffer) != -1) {
+            buffer.flip()
+            crc.update(buffer)
+            buffer.clear()
+        }
+    }
+
+    return crc.value
+}
+
+/*
+ * The content is written next to the file first and then moved over it, so no half-written file is left.
+ * Synced to the disk before the move only if asked to, as for a database; a media file may be imported again.
+ */
+fun File.writeAtomically(`is`: InputStream, sync: Boolean = false) {
+    parentFile?.mkdirs()
+
+    val temp = File(parentFile, ".$name$TEMP_SUFFIX")
+
+    try {
+        FileOutputStream(temp).use { os ->
+            `is`.copyTo(os, COPY_BUFFER_SIZE)
+
+            if (sync) {
+                os.fd.sync()
+            }
+        }
+
+        Files.move(
+            temp.toPath(),
+            toPath(),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING
+        )
+    } catch (e: Throwable) {
+        temp.delete()
+        throw e
+    }
+}
+
+// Temp files of writeAtomically left by a process killed before the move, older than since.
+fun File.deleteTempFiles(since: Long) {
+    walkTopDown()
+        .filter { file -> file.isFile && file.name.startsWith(".") && file.name.endsWith(TEMP_SUFFIX) }
+        .filter { file -> file.lastModified() < since }
+        .forEach(File::delete)
+}
+
+// Marks the folder while block writes into it, a mark left behind means the process died meanwhile.
+fun <T> File.writing(block: () -> T): T {
+    val mark = File(this, WRITING_MARK)
+    mark.createNewFile()
+
+    try {
+        return block()
+    } finally {
+        mark.delete()
+    }
+}
+
+// As deleteTempFiles, but only walks the folder if a write into it was interrupted.
+fun File.deleteInterruptedTempFiles(since: Long) {
+    val mark = File(this, WRITING_MARK)
+    if (mark.exists() && mark.lastModified() < since) {
+        deleteTempFiles(since)
+        mark.delete()
+    }
 }
\ No newline at end of file
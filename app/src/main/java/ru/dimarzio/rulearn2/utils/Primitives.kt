@@ -9,14 +9,104 @@ infix fun Int.percentageFrom(number: Int) = if (this == 0) {
     ((this / number.toFloat()) * 100).coerceIn(0f..100f)
 }
 
-fun String.normalized(): String = StringUtils.stripAccents(
+private val marks = "\\p{Mn}+".toRegex()
+
+// Folds of single chars for Latin, combining marks, Cyrillic, Arabic and punctuation, null elsewhere.
+private val folds: Array<String?> by lazy {
+    val ranges = listOf(
+        0x0000..0x024F,
+        0x0300..0x036F,
+        0x0400..0x052F,
+        0x0600..0x06FF,
+        0x1E00..0x1EFF,
+        0x2000..0x206F
+    )
+
+    arrayOfNulls<String>(ranges.last().last + 1).apply {
+        ranges.forEach { range ->
+            range.forEach { code -> this[code] = code.toChar().toString().fold(trim = false) }
+        }
+    }
+}
+
+private const val CACHE_SIZE = 256
+private const val CACHED_LENGTH = 64
+
+private val cache = object : LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, String>?) = size > CACHE_SIZE
+}
+
+private fun String.fold(trim: Boolean) = StringUtils.stripAccents(
     Normalizer
         .normalize(this, Normalizer.Form.NFKD)
-        .replace("\\p{Mn}+".toRegex(), "")
-        .trim()
+        .replace(marks, "")
+        .whether(trim) { trim() }
         .lowercase()
 )
 
+// Fold of every char, normalized() is them joined and trimmed; null if one is out of the table.
+fun String.charFolds(): List<String>? {
+    val table = folds
+    return List(length) { i -> table.getOrNull(this[i].code) ?: return null }
+}
+
+/*
+ * Range of this string that normalized()[start until end] is folded from, as start..end like the highlights take it;
+ * marks dropped by the fold stay with the char before them. Null if the range cuts a fold in two,
+ * or if a char is out of the table and normalization changed the length.
+ */
+fun String.rawRange(start: Int, end: Int): IntRange? {
+    val folds = charFolds() ?: return (start..end).takeIf { normalized().length == length }
+    val lead = folds.joinToString("").takeWhile(Char::isWhitespace).length
+
+    var from = -1
+    var to = -1
+    var folded = 0 // Length of the folds before the i-th char.
+
+    for (i in 0..length) {
+        if (folded == start + lead) from = i
+        if (folded == end + lead) to = i
+        if (i < length) folded += folds[i].length
+    }
+
+    return if (from != -1 && to != -1) from..to else null
+}
+
+// Chars are folded one by one, null if one is out of the table.
+private fun String.foldByTable(): String? {
+    val table = folds
+    val builder = StringBuilder(length)
+
+    for (char in this) {
+        builder.append(table.getOrNull(char.code) ?: return null)
+    }
+
+    return builder.trim().toString()
+}
+
+/*
+ * NFKD form without marks, trimmed, lowercased and with accents stripped.
+ * ASCII only needs trimming and lowercasing, Latin, Cyrillic and Arabic go through the table
+ * and only the rest (Greek final sigma depends on the position) is normalized as a whole.
+ */
+fun String.normalized(): String {
+    if (all { char -> char.code < 0x80 }) {
+        return trim().lowercase()
+    }
+
+    val cached = length <= CACHED_LENGTH
+    if (cached) {
+        synchronized(cache) { cache[this] }?.let { normalized -> return normalized }
+    }
+
+    val normalized = foldByTable() ?: fold(trim = true)
+    if (cached) {
+        synchronized(cache) { cache[this] = normalized }
+    }
+
+    return normalized
+}
+
 inline fun <T> T.whether(condition: Boolean, block: T.() -> T) = if (condition) {
     block()
 } else {
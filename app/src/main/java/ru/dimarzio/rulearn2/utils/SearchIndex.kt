@@ -0,0 +1,247 @@
+package ru.dimarzio.rulearn2.utils
+
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
+
+/*
+ * Trigram index over normalized names and translations.
+ * Candidates are the intersection of the query trigrams and are then checked for the substring,
+ * queries shorter than a trigram are checked against every word.
+ * Every page is indexed once into a segment of primitive arrays; words updated afterwards
+ * are shadowed in the segments and checked one by one, there are only a few of them.
+ * Thread safe: built page by page off the main thread while words are updated on it.
+ */
+class SearchIndex {
+    private class Entry(val name: String, val translation: String)
+
+    /*
+     * Rows of a page sorted by id, and for every trigram key of them the sorted rows holding it:
+     * rows[starts[k] until starts[k + 1]] for keys[k].
+     */
+    private class Segment(
+        val ids: IntArray,
+        val names: Array<String>,
+        val translations: Array<String>,
+        val keys: LongArray,
+        val starts: IntArray,
+        val rows: IntArray
+    ) {
+        fun indexOf(id: Int) = ids.binarySearch(id)
+
+        // Rows holding every key, the keys are sorted by the number of rows so the first one bounds the rest.
+        fun rowsOf(keys: LongArray): IntArray {
+            val postings = keys.map { key ->
+                val k = this.keys.binarySearch(key)
+                if (k < 0) return IntArray(0)
+                starts[k] until starts[k + 1]
+            }.sortedBy(IntRange::count)
+
+            var result = rows.copyOfRange(postings.first().first, postings.first().last + 1)
+            for (posting in postings.drop(1)) {
+                result = intersect(result, posting)
+            }
+
+            return result
+        }
+
+        // Merge of two sorted lists.
+        private fun intersect(left: IntArray, right: IntRange): IntArray {
+            val result = IntArray(minOf(left.size, right.count()))
+            var size = 0
+            var i = 0
+            var j = right.first
+
+            while (i < left.size && j <= right.last) {
+                when {
+                    left[i] < rows[j] -> i++
+                    left[i] > rows[j] -> j++
+                    else -> {
+                        result[size++] = left[i]
+                        i++
+                        j++
+                    }
+                }
+            }
+
+            return result.copyOf(size)
+        }
+    }
+
+    private val segments = mutableListOf<Segment>()
+    private val updated = HashMap<Int, Entry>() // Put after their page, take over its row.
+    private val shadowed = HashSet<Int>() // Put or removed after their page.
+
+    companion object {
+        private const val N = 3
+        private const val ROW_BITS = 16 // A key is the trigram and the row, so that sorting them groups the rows.
+        private const val SEGMENT_SIZE = 1 shl ROW_BITS
+    }
+
+    private fun String.gram(at: Int) =
+        (this[at].code.toLong() shl 32) or (this[at + 1].code.toLong() shl 16) or this[at + 2].code.toLong()
+
+    private inline fun String.forEachGram(action: (Long) -> Unit) {
+        for (i in 0..length - N) {
+            action(gram(i))
+        }
+    }
+
+    private fun segment(ids: IntArray, names: Array<String>, translations: Array<String>): Segment {
+        val order = ids.indices.sortedBy(ids::get)
+        val sortedIds = IntArray(ids.size) { row -> ids[order[row]] }
+        val sortedNames = Array(ids.size) { row -> names[order[row]] }
+        val sortedTranslations = Array(ids.size) { row -> translations[order[row]] }
+
+        var count = 0
+        for (row in sortedIds.indices) {
+            count += maxOf(sortedNames[row].length - N + 1, 0) + maxOf(sortedTranslations[row].length - N + 1, 0)
+        }
+
+        val packed = LongArray(count)
+        var size = 0
+        for (row in sortedIds.indices) {
+            val add = { gram: Long -> packed[size++] = (gram shl ROW_BITS) or row.toLong() }
+            sortedNames[row].forEachGram(add)
+            sortedTranslations[row].forEachGram(add)
+        }
+        packed.sort()
+
+        val keys = LongArray(count)
+        val starts = IntArray(count + 1)
+        val rows = IntArray(count)
+        var keyCount = 0
+        var rowCount = 0
+        val mask = (1L shl ROW_BITS) - 1
+
+        for (i in packed.indices) {
+            if (i > 0 && packed[i] == packed[i - 1]) {
+                continue // Same trigram twice in a word.
+            }
+
+            val key = packed[i] and mask.inv()
+            if (keyCount == 0 || keys[keyCount - 1] != key) {
+                keys[keyCount] = key
+                starts[keyCount++] = rowCount
+            }
+
+            rows[rowCount++] = (packed[i] and mask).toInt()
+        }
+        starts[keyCount] = rowCount
+
+        return Segment(
+            sortedIds,
+            sortedNames,
+            sortedTranslations,
+            keys.copyOf(keyCount),
+            starts.copyOf(keyCount + 1),
+            rows.copyOf(rowCount)
+        )
+    }
+
+    @Synchronized
+    fun put(id: Int, word: Word) {
+        shadowed.add(id)
+        updated[id] = Entry(word.normalizedName, word.translation.normalized())
+    }
+
+    @Synchronized
+    fun putAll(words: WordRows) {
+        val size = words.countRows { true }
+        val ids = IntArray(size)
+        val names = arrayOfNulls<String>(size)
+        val translations = arrayOfNulls<String>(size)
+
+        var row = 0
+        words.forEachRow {
+            ids[row] = id
+            names[row] = name.normalized()
+            translations[row++] = translation.normalized()
+        }
+
+        for (from in 0 until size step SEGMENT_SIZE) {
+            val to = minOf(from + SEGMENT_SIZE, size)
+            segments.add(
+                segment(
+                    ids.copyOfRange(from, to),
+                    names.copyOfRange(from, to).requireNoNulls(),
+                    translations.copyOfRange(from, to).requireNoNulls()
+                )
+            )
+        }
+    }
+
+    @Synchronized
+    fun remove(id: Int) {
+        shadowed.add(id)
+        updated.remove(id)
+    }
+
+    @Synchronized
+    fun clear() {
+        segments.clear()
+        updated.clear()
+        shadowed.clear()
+    }
+
+    private fun contains(id: Int) =
+        id in updated || (id !in shadowed && segments.any { segment -> segment.indexOf(id) >= 0 })
+
+    /*
+     * Ids of the words containing the query, best first:
+     * exact id, then name equal, starting with or containing it, then the same for translation.
+     */
+    @Synchronized
+    fun search(query: String): List<Int> {
+        val normalized = query.normalized()
+        if (normalized.isEmpty()) {
+            return emptyList()
+        }
+
+        val id = normalized.toIntOrNull()
+        val ranked = mutableListOf<Triple<Int, Int, Int>>()
+
+        val rank = { candidate: Int, name: String, translation: String ->
+            val rank = when {
+                candidate == id -> 0
+                name == normalized -> 1
+                name.startsWith(normalized) -> 2
+                normalized in name -> 3
+                translation == normalized -> 4
+                translation.startsWith(normalized) -> 5
+                normalized in translation -> 6
+                else -> null // Trigrams matched, but not in a row.
+            }
+
+            if (rank != null) {
+                ranked.add(Triple(rank, name.length, candidate))
+            }
+        }
+
+        val keys = if (normalized.length < N) {
+            null
+        } else {
+            val grams = HashSet<Long>()
+            normalized.forEachGram { gram -> grams.add(gram shl ROW_BITS) }
+            grams.toLongArray()
+        }
+
+        for (segment in segments) {
+            val visit = { row: Int ->
+                val candidate = segment.ids[row]
+                if (candidate !in shadowed) {
+                    rank(candidate, segment.names[row], segment.translations[row])
+                }
+            }
+
+            if (keys != null) segment.rowsOf(keys).forEach(visit) else segment.ids.indices.forEach(visit)
+        }
+
+        updated.forEach { (candidate, entry) -> rank(candidate, entry.name, entry.translation) }
+
+        val exact = if (id != null && ranked.none { (rank) -> rank == 0 } && contains(id)) listOf(id) else emptyList()
+
+        return exact + ranked
+            .sortedWith(compareBy(Triple<Int, Int, Int>::first, Triple<Int, Int, Int>::second))
+            .map(Triple<Int, Int, Int>::third)
+    }
+}
\ No newline at end of file
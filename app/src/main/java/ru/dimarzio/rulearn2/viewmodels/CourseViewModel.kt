@@ -10,26 +10,28 @@ import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import ru.dimarzio.rulearn2.application.Database
+import ru.dimarzio.rulearn2.application.WordWriter
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Level
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.tflite.DefaultModel
-import ru.dimarzio.rulearn2.tflite.Loss
+import ru.dimarzio.rulearn2.tflite.LossAccumulator
 import ru.dimarzio.rulearn2.tflite.ModelFactory
-import ru.dimarzio.rulearn2.utils.normalized
+import ru.dimarzio.rulearn2.utils.SearchIndex
 import ru.dimarzio.rulearn2.utils.replaceKeys
 import ru.dimarzio.rulearn2.utils.replaceValues
 import ru.dimarzio.rulearn2.utils.replaceValuesCompat
 import ru.dimarzio.rulearn2.utils.whether
 import java.io.File
 import java.util.Locale
-import kotlin.math.abs
-import kotlin.math.pow
-import kotlin.math.sqrt
 
 typealias Filter = (Boolean, Boolean, Boolean, Boolean, Boolean, Boolean, Boolean, Boolean) -> Unit
 
@@ -37,19 +39,27 @@ class CourseViewModel(
     private val database: Database,
     private val handler: ErrorHandler,
     private val appFolder: File,
+    journalFolder: File,
     private val assets: AssetManager,
     val course: String,
-    lifecycle: Lifecycle
+    lifecycle: Lifecycle,
+    val clock: () -> Long = Word::now // Now, taken once per pass over the words
 ) : ViewModel() {
     // SnapshotStateMap is impossible to use because it does not save the order.
-    private val _words = MutableStateFlow(emptyMap<Int, Word>())
+    private val _words = MutableStateFlow(CourseStore.EMPTY)
     private val _levels = MutableStateFlow(emptyMap<String, Level>())
+    private val _version = MutableStateFlow(0)
 
     private var searchResults by mutableStateOf(emptyMap<Int, Word>())
+    private val index = SearchIndex() // Level is not indexed, so renaming one keeps it as is.
+    private var searching: Job? = null
 
     val words = _words.asStateFlow()
     val levels = _levels.asStateFlow()
 
+    // Bumped when words are added or removed or a name changes, which is all that indexes of names depend on.
+    val version = _version.asStateFlow()
+
     var showLoadingIndicator by mutableStateOf(false)
 
     var showSearchingIndicator by mutableStateOf(false)
@@ -74,11 +84,12 @@ class CourseViewModel(
         private set
 
     val filteredSearchResults by derivedStateOf {
+        val now = clock()
         val repeatLambda: Map<Int, Word>.() -> Map<Int, Word> = {
-            filterNot { (_, word) -> word.isRepeat }
+            filterNot { (_, word) -> word.isRepeat(now) }
         }
         val notRepeatLambda: Map<Int, Word>.() -> Map<Int, Word> = {
-            filter { (_, word) -> word.isRepeat }
+            filter { (_, word) -> word.isRepeat(now) }
         }
         val difficultLambda: Map<Int, Word>.() -> Map<Int, Word> = {
             filterNot { (_, word) -> word.difficult }
@@ -113,10 +124,23 @@ class CourseViewModel(
             .toMap()
     }
 
-    var loss by mutableStateOf(Loss(0.0, 0.0, 0.0))
+    private val accumulator = LossAccumulator() // Backs loss, updated per changed word
+
+    var loss by mutableStateOf(accumulator.loss)
         private set
     var showTrainingIndicator by mutableStateOf(false)
         private set
+    var trainingProgress by mutableStateOf(0) // Percent of the epochs
+        private set
+
+    private var training: Job? = null
+
+    private val writer = WordWriter(
+        database = database,
+        course = course,
+        journal = WordWriter.journal(journalFolder, appFolder, course),
+        onError = { exception -> viewModelScope.launch { handler.onErrorHandled(exception) } }
+    )
 
     val locale = Locale(course.take(2))
 
@@ -126,39 +150,77 @@ class CourseViewModel(
         null
     }
 
+    companion object {
+        private const val FIRST_PAGE = 200
+        private const val MAX_PAGE = 6400
+    }
+
+    private fun WordRows.toLevels(now: Long = clock()) = buildMap<String, Level> {
+        forEachRow {
+            val current = getOrElse(level, ::Level)
+            this@buildMap[level] = current.copy(
+                total = current.total + if (!skip) 1 else 0,
+                learned = current.learned + if (learned && !skip) 1 else 0,
+                toRepeat = current.toRepeat + if (isRepeat(now)) 1 else 0,
+                difficult = current.difficult + if (learned) 1 else 0
+            )
+        }
+    }
+
     init {
         viewModelScope.launch {
             showLoadingIndicator = true
 
-            val result = withContext(Dispatchers.Default) {
-                runCatching {
-                    _words.value = database.getWords(course)
-                    _levels.value = _words.value.values
-                        .groupingBy(Word::level)
-                        .fold(Level()) { current, word ->
-                            current.copy(
-                                total = current.total + if (!word.skip) 1 else 0,
-                                learned = current.learned + if (word.learned && !word.skip) 1 else 0,
-                                toRepeat = current.toRepeat + if (word.isRepeat) 1 else 0,
-                                difficult = current.difficult + if (word.learned) 1 else 0
-                            )
-                        }
+            withContext(Dispatchers.IO) { runCatching(database::recover) }.onFailure(handler::onErrorHandled)
+
+            // Keyset pages, growing so that the first one shows up at once and copying stays cheap.
+            var after = 0
+            var limit = FIRST_PAGE
+
+            while (true) {
+                val result = withContext(Dispatchers.Default) {
+                    runCatching { database.getWords(course, null, after, limit) }
+                        .onSuccess(index::putAll)
+                }
+
+                val page = result
+                    .onFailure(handler::onErrorHandled)
+                    .getOrNull()
+                    ?: break
+
+                val pageLevels = page.toLevels()
+
+                _words.value += page
+                _version.value++
+                accumulator.addAll(page)
+                loss = accumulator.loss
+                _levels.value = (_levels.value.keys + pageLevels.keys).associateWith { name ->
+                    (_levels.value[name] ?: Level()) + (pageLevels[name] ?: Level())
+                }
+
+                if (page.size < limit) {
+                    break
                 }
-            }
 
-            result.onFailure(handler::onErrorHandled)
+                after = page.lastId ?: break
+                limit = (limit * 2).coerceAtMost(MAX_PAGE)
+            }
 
             showLoadingIndicator = false
         }
 
         lifecycle.addObserver(
             LifecycleEventObserver { _, e ->
-                if (e == Lifecycle.Event.ON_RESUME) {
-                    val toRepeat = _words.value
-                        .filter { (_, word) -> word.isRepeat }
-                        .toList()
-                        .groupingBy { (_, word) -> word.level }
-                        .eachCount()
+                if (e == Lifecycle.Event.ON_STOP) {
+                    writer.flush()
+                } else if (e == Lifecycle.Event.ON_RESUME) {
+                    val now = clock()
+                    val toRepeat = HashMap<String, Int>()
+                    _words.value.forEachRow {
+                        if (isRepeat(now)) {
+                            toRepeat.merge(level, 1, Int::plus)
+                        }
+                    }
 
                     _levels.value = _levels.value.replaceValuesCompat(
                         with = { (name, level) -> level.copy(toRepeat = toRepeat[name] ?: 0) },
@@ -167,29 +229,6 @@ class CourseViewModel(
                 }
             }
         )
-
-        viewModelScope.launch {
-            _words.collect {
-                if (_words.value.isEmpty()) {
-                    loss = Loss(0.0, 0.0, 0.0)
-                }
-
-                val mae = _words.value
-                    .map { (_, word) -> abs(word.ratio - word.successRate) }
-                    .average()
-
-                val ssRes = _words.value.values.sumOf { word ->
-                    (word.ratio - word.successRate).pow(2)
-                }
-                val rmse = sqrt(ssRes / _words.value.size)
-
-                val avg = _words.value.map { (_, word) -> word.ratio }.average()
-                val ssTot = _words.value.values.sumOf { word -> (word.ratio - avg).pow(2) }
-                val r2 = if (ssTot != 0.0) 1.0 - (ssRes / ssTot) else 1.0
-
-                loss = Loss(mae, rmse, r2)
-            }
-        }
     }
 
     private fun Word.delete() {
@@ -199,14 +238,21 @@ class CourseViewModel(
     fun getWord(id: Int) = _words.value[id]
 
     fun updateWord(id: Int, word: Word) {
-        runCatching { database.updateWord(course, id, word) }.onFailure(handler::onErrorHandled)
+        writer.enqueue(id, word) // Saved in the background, the state below is updated at once.
 
         val old = words.value[id]
+        val now = clock()
 
-        _words.value = _words.value.replaceValues(
-            with = word,
-            predicate = { (i, _) -> id == i }
-        )
+        if (old != null) { // As before, a word not loaded yet is not added, its page counts it.
+            accumulator.replace(old, word)
+            loss = accumulator.loss
+            index.put(id, word)
+            _words.value = _words.value.with(id, word)
+
+            if (old.name != word.name) {
+                _version.value++
+            }
+        }
 
         searchResults = searchResults.replaceValues(
             with = word,
@@ -224,9 +270,9 @@ class CourseViewModel(
                         } else {
                             level.total
                         },
-                        toRepeat = if (old.isRepeat && !word.isRepeat) {
+                        toRepeat = if (old.isRepeat(now) && !word.isRepeat(now)) {
                             level.toRepeat - 1
-                        } else if (!old.isRepeat && word.isRepeat) {
+                        } else if (!old.isRepeat(now) && word.isRepeat(now)) {
                             level.toRepeat + 1
                         } else {
                             level.toRepeat
@@ -247,7 +293,7 @@ class CourseViewModel(
                 with = { (_, level) ->
                     level.copy(
                         total = if (!word.skip) level.total + 1 else level.total,
-                        toRepeat = if (word.isRepeat) level.toRepeat + 1 else level.toRepeat,
+                        toRepeat = if (word.isRepeat(now)) level.toRepeat + 1 else level.toRepeat,
                         learned = if (word.learned) level.learned + 1 else level.learned,
                     )
                 },
@@ -259,7 +305,7 @@ class CourseViewModel(
                     with = { (_, level) ->
                         level.copy(
                             total = if (!old.skip) level.total - 1 else level.total,
-                            toRepeat = if (old.isRepeat) level.toRepeat - 1 else level.toRepeat,
+                            toRepeat = if (old.isRepeat(now)) level.toRepeat - 1 else level.toRepeat,
                             learned = if (old.learned) level.learned - 1 else level.learned,
                         )
                     },
@@ -270,20 +316,25 @@ class CourseViewModel(
     }
 
     fun removeWord(id: Int) {
-        runCatching { database.deleteWord(course, id) }.onFailure(handler::onErrorHandled)
+        writer.deleteWord(id) // In order with the words being saved, close saves it as well.
 
         val word = words.value[id]
         if (word != null) {
             runCatching { word.delete() }.onFailure(handler::onErrorHandled) // Remove audio
 
             _words.value -= id
+            _version.value++
             searchResults -= id
 
+            accumulator.remove(word)
+            loss = accumulator.loss
+            index.remove(id)
+
             _levels.value = _levels.value.replaceValuesCompat(
                 with = { (_, level) ->
                     level.copy(
                         total = if (!word.skip) level.total - 1 else level.total,
-                        toRepeat = if (word.isRepeat) level.toRepeat - 1 else level.toRepeat,
+                        toRepeat = if (word.isRepeat(clock())) level.toRepeat - 1 else level.toRepeat,
                         learned = if (word.learned) level.learned - 1 else level.learned,
                     )
                 },
@@ -293,11 +344,18 @@ class CourseViewModel(
     }
 
     fun deleteLevel(name: String) {
-        runCatching { database.deleteLevel(course, name) }.onFailure(handler::onErrorHandled)
+        writer.deleteLevel(name) // In order with the words being saved, close saves it as well.
 
-        _words.value = _words.value
-            .onEach { (_, word) -> if (word.level == name) word.delete() }
-            .filter { (_, word) -> word.level != name }
+        _words.value.forEachRow {
+            if (level == name) {
+                this.word.delete()
+                accumulator.remove(this.word)
+                index.remove(id)
+            }
+        }
+        _words.value = _words.value.selectRows { level != name }
+        _version.value++
+        loss = accumulator.loss
         _levels.value -= name
 
         searchResults.forEach { (id, word) ->
@@ -310,7 +368,7 @@ class CourseViewModel(
     fun confirmRenameLevel(to: String) = _levels.value.none { (name, _) -> name == to }
 
     fun renameLevel(from: String, to: String) {
-        runCatching { database.renameLevel(course, from, to) }.onFailure(handler::onErrorHandled)
+        writer.renameLevel(from, to) // In order with the words being saved, close saves it as well.
 
         val fromModel = _levels.value[from]
 
@@ -325,10 +383,7 @@ class CourseViewModel(
             _levels.value -= from
         }
 
-        _words.value = _words.value.replaceValuesCompat(
-            with = { (_, word) -> word.copy(level = to) },
-            predicate = { (_, word) -> word.level == from }
-        )
+        _words.value = _words.value.renameLevel(from, to)
 
         searchResults = searchResults.replaceValuesCompat(
             with = { (_, word) -> word.copy(level = to) },
@@ -358,36 +413,43 @@ class CourseViewModel(
 
     fun updateQuery(with: String) {
         query = with
+        search(submitted = false)
     }
 
-    fun search() {
-        viewModelScope.launch {
-            showSearchingIndicator = true
-
-            val normalized = query.normalized()
+    // Runs as the user types, submitted only adds the indicator and the message.
+    fun search(submitted: Boolean = true) {
+        searching?.cancel()
+        searching = viewModelScope.launch {
+            showSearchingIndicator = submitted
 
+            val query = query
             searchResults = withContext(Dispatchers.Default) {
-                _words.value.filter { (id, word) ->
-                    normalized in word.normalizedName
-                            || normalized in word.translation
-                            || normalized.toIntOrNull() == id
-                }
+                val words = _words.value
+                index.search(query).mapNotNull { id -> words[id]?.let { word -> id to word } }.toMap()
             }
 
             showSearchingIndicator = false
 
-            if (searchResults.isEmpty()) {
+            if (submitted && searchResults.isEmpty()) {
                 handler.onMessageReceived("Nothing found.")
             }
         }
     }
 
     fun train() {
-        viewModelScope.launch {
+        training = viewModelScope.launch {
             showTrainingIndicator = true
-
-            val success = withContext(Dispatchers.Default) {
-                model?.train(_words.value.map { (id, word) -> word.toFeatures(id) })
+            trainingProgress = 0
+
+            val success = try {
+                withContext(Dispatchers.Default) {
+                    model?.train(_words.value.toFeatures()) { progress ->
+                        ensureActive() // Throws once cancelled, which stops the training.
+                        trainingProgress = (progress * 100).toInt()
+                    }
+                }
+            } finally {
+                showTrainingIndicator = false
             }
 
             if (model is DefaultModel && success == true) {
@@ -405,12 +467,18 @@ class CourseViewModel(
             } else if (success == false) {
                 handler.onMessageReceived("Error.")
             }
-
-            showTrainingIndicator = false
         }
     }
 
+    fun cancelTraining() {
+        training?.cancel()
+        training = null
+
+        handler.onMessageReceived("Training cancelled.")
+    }
+
     override fun onCleared() {
+        runCatching(writer::close).onFailure(handler::onErrorHandled)
         ModelFactory.removeModel(course)
     }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import androidx.compose.runtime.derivedStateOf
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
+import androidx.core.database.getLongOrNull
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.ViewModel
@@ -16,13 +17,17 @@ import com.google.android.gms.nearby.Nearby
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.drop
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import ru.dimarzio.rulearn2.application.CourseSnapshot
 import ru.dimarzio.rulearn2.application.Database
 import ru.dimarzio.rulearn2.models.Course
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.utils.ImageFile
 import ru.dimarzio.rulearn2.utils.toMutableStateMap
+import ru.dimarzio.rulearn2.utils.writing
 import ru.dimarzio.rulearn2.viewmodels.io.export.ExportComponent
 import ru.dimarzio.rulearn2.viewmodels.io.export.ExportFactory
 import ru.dimarzio.rulearn2.viewmodels.io.import.CSV
@@ -36,20 +41,36 @@ class CoursesViewModel(
     private val database: Database,
     private val handler: ErrorHandler,
     private val application: Application, // ConnectionsClient, cache, contentResolver
-    lifecycle: Lifecycle
+    lifecycle: Lifecycle,
+    snapshotFile: File,
+    private val clock: () -> Long = Word::now // Now, taken once per pass over the courses
 ) : ViewModel(), Observer {
-    private val courses = runCatching { database.courses }
+    private val snapshot = CourseSnapshot(snapshotFile)
+
+    // Shown from the snapshot at once, then reconciled with the database by refresh.
+    private val courses = runCatching { snapshot.read() }
         .onFailure(handler::onErrorHandled)
         .getOrDefault(emptyMap())
         .toMutableStateMap()
 
+    // The courses to write to the snapshot; set on stop and after reconciling, not on every answered card.
+    private val toSnapshot = MutableStateFlow(courses.toMap())
+
     private val _importProgress = MutableStateFlow(null as Float?)
     private val _exportProgress = MutableStateFlow(null as Float?)
     private val _deleteProgress = MutableStateFlow(null as Float?)
 
-    val p2p = P2PManager(Nearby.getConnectionsClient(application), database, handler)
+    val p2p = P2PManager(
+        Nearby.getConnectionsClient(application),
+        database,
+        handler,
+        application.contentResolver,
+        application.cacheDir
+    )
 
     private val importedCourses = mutableSetOf<String>()
+    private var importing: ImportComponent? = null // Root of the running import
+    private var exporting: ExportComponent? = null // Root of the running export
 
     val sortedCourses by derivedStateOf {
         courses.entries
@@ -69,6 +90,18 @@ class CoursesViewModel(
         private set
 
     init {
+        refresh()
+
+        // Saved when asked to and changed since, the last state wins.
+        viewModelScope.launch {
+            toSnapshot
+                .drop(1) // Read from the snapshot
+                .collectLatest { shown ->
+                    withContext(Dispatchers.IO) { runCatching { snapshot.write(shown) } }
+                        .onFailure(handler::onErrorHandled)
+                }
+        }
+
         p2p.onFileReceived = { id, uri ->
             val result = runCatching {
                 val file = File(application.cacheDir, id)
@@ -77,37 +110,81 @@ class CoursesViewModel(
                     file.outputStream().use { os -> `is`.copyTo(os) }
                 }
 
-                database.runAttaching(file) {
-                    val courses = database.getCoursesNames(Database.SLAVE)
-                    if (courses.isNotEmpty()) {
-                        replicationCourses = courses
-                    } else {
-                        handler.onMessageReceived("No courses on the slave.")
-                        file.delete() // As file has no courses, there is no reason to save it.
-                    }
-                }
+                offerReplication(file)
             }
 
             result.onFailure(handler::onErrorHandled)
         }
 
+        p2p.onDeltaReceived = { _, file ->
+            runCatching { offerReplication(file) }.onFailure(handler::onErrorHandled)
+        }
+
         lifecycle.addObserver(
             LifecycleEventObserver { _, e ->
-                if (e == Lifecycle.Event.ON_RESUME) {
-                    courses.forEach { (name, course) ->
-                        runCatching { database.getRepeatWords(name) }
-                            .onFailure(handler::onErrorHandled)
-                            .onSuccess { count ->
-                                if (count > course.repeat) {
-                                    courses[name] = course.copy(repeat = count)
+                if (e == Lifecycle.Event.ON_STOP) {
+                    saveSnapshot()
+                } else if (e == Lifecycle.Event.ON_RESUME) {
+                    val names = courses.keys.toList()
+
+                    viewModelScope.launch {
+                        // Counted on the readers, next to an import or replication if one is running.
+                        val counts = withContext(Dispatchers.IO) {
+                            names.associateWith { name -> runCatching { database.getRepeatWords(name) } }
+                        }
+
+                        counts.forEach { (name, count) ->
+                            count
+                                .onFailure(handler::onErrorHandled)
+                                .onSuccess { repeat ->
+                                    val course = courses[name]
+                                    if (course != null && repeat > course.repeat) {
+                                        courses[name] = course.copy(repeat = repeat)
+                                    }
                                 }
-                            }
+                        }
                     }
                 }
             }
         )
     }
 
+    private fun refresh() {
+        viewModelScope.launch {
+            withContext(Dispatchers.IO) { runCatching { database.courses } }
+                .onFailure(handler::onErrorHandled)
+                .onSuccess(::reconcile)
+        }
+    }
+
+    // Only the courses that differ are changed, so the rest of the screen is not recomposed.
+    private fun reconcile(actual: Map<String, Course>) {
+        courses.keys.retainAll(actual.keys)
+        actual.forEach { (name, course) ->
+            if (courses[name] != course) {
+                courses[name] = course
+            }
+        }
+
+        saveSnapshot()
+    }
+
+    private fun saveSnapshot() {
+        toSnapshot.value = courses.toMap()
+    }
+
+    private fun offerReplication(file: File) {
+        database.runAttaching(file) {
+            val courses = database.getCoursesNames(Database.SLAVE)
+            if (courses.isNotEmpty()) {
+                replicationCourses = courses
+            } else {
+                handler.onMessageReceived("No courses on the slave.")
+                file.delete() // As file has no courses, there is no reason to save it.
+            }
+        }
+    }
+
     private fun Uri.getName(context: Context): String? {
         return context.contentResolver.query(this, null, null, null, null)?.use { cursor ->
             cursor.moveToFirst()
@@ -115,6 +192,13 @@ class CoursesViewModel(
         }
     }
 
+    private fun Uri.getSize(context: Context): Long? {
+        return context.contentResolver.query(this, null, null, null, null)?.use { cursor ->
+            cursor.moveToFirst()
+            cursor.getLongOrNull(cursor.getColumnIndexOrThrow(OpenableColumns.SIZE))
+        }
+    }
+
     private val String.extension get() = substringAfterLast('.')
 
     fun import(context: Context, uri: Uri, folder: File) {
@@ -130,14 +214,19 @@ class CoursesViewModel(
                     val component = factory.create(name)
 
                     component.attach(this@CoursesViewModel)
+                    component.length = uri.getSize(context) ?: -1
+                    importing = component
 
-                    context.contentResolver.openInputStream(uri)?.use { `is` ->
-                        component.import(`is`)
+                    folder.writing { // Temp files are looked for on the next start if the process dies.
+                        context.contentResolver.openInputStream(uri)?.use { `is` ->
+                            component.import(`is`)
+                        }
                     }
                 }
             }
 
             _importProgress.value = null
+            importing = null
 
             importedCourses.forEach { course ->
                 val result = runCatching { courses[course] = database.getCourse(course) }
@@ -159,6 +248,7 @@ class CoursesViewModel(
             val result = withContext(Dispatchers.IO) {
                 val component = factory.make("root", folder, database)
                 component.attach(this@CoursesViewModel)
+                exporting = component
 
                 runCatching {
                     ZipOutputStream(context.contentResolver.openOutputStream(uri)).use { zos ->
@@ -168,6 +258,7 @@ class CoursesViewModel(
             }
 
             _exportProgress.value = null
+            exporting = null
 
             result
                 .onFailure(handler::onErrorHandled)
@@ -263,6 +354,7 @@ class CoursesViewModel(
 
     fun updateCourse(name: String, old: Word?, new: Word) {
         val course = courses.getValue(name)
+        val now = clock()
 
         courses[name] = if (old != null) {
             course.copy(
@@ -273,9 +365,9 @@ class CoursesViewModel(
                 } else {
                     course.total
                 },
-                repeat = if (old.isRepeat && !new.isRepeat) {
+                repeat = if (old.isRepeat(now) && !new.isRepeat(now)) {
                     course.repeat - 1
-                } else if (!old.isRepeat && new.isRepeat) {
+                } else if (!old.isRepeat(now) && new.isRepeat(now)) {
                     course.repeat + 1
                 } else {
                     course.repeat
@@ -291,7 +383,7 @@ class CoursesViewModel(
         } else {
             course.copy(
                 total = if (!new.skip) course.total + 1 else course.total,
-                repeat = if (new.isRepeat) course.repeat + 1 else course.repeat,
+                repeat = if (new.isRepeat(now)) course.repeat + 1 else course.repeat,
                 learned = if (new.learned) course.learned + 1 else course.learned
             )
         }
@@ -302,7 +394,7 @@ class CoursesViewModel(
 
         courses[name] = course.copy(
             total = if (!toRemove.skip) course.total - 1 else course.total,
-            repeat = if (toRemove.isRepeat) course.repeat - 1 else course.repeat,
+            repeat = if (toRemove.isRepeat(clock())) course.repeat - 1 else course.repeat,
             learned = if (toRemove.learned) course.learned - 1 else course.learned
         )
     }
@@ -370,9 +462,7 @@ class CoursesViewModel(
     fun runSQLiteQuery(query: String) {
         val result = runCatching {
             database.rawQuery(query)
-
-            courses.clear()
-            courses.putAll(database.courses)
+            reconcile(database.courses)
         }
 
         result
@@ -382,23 +472,23 @@ class CoursesViewModel(
 
     override fun update(subject: Subject) {
         when (subject) {
-            is CSV -> { // CSV imported.
-                val tableName = subject.name.removeSuffix(".csv")
-                if (!tableName.endsWith("_ml")) {
-                    val course = tableName.removeSuffix("_stat")
-                    importedCourses.add(course)
+            is ImportComponent -> {
+                if (subject is CSV && subject.getProgress() == 1f) { // CSV imported.
+                    val tableName = subject.name.removeSuffix(".csv")
+                    if (!tableName.endsWith("_ml")) {
+                        val course = tableName.removeSuffix("_stat")
+                        importedCourses.add(course)
+                    }
                 }
-            }
 
-            is ImportComponent -> {
-                val progress = subject.getProgress() * 100
+                val progress = (importing ?: subject).getProgress() * 100
                 if (progress != _importProgress.value) {
                     _importProgress.value = progress
                 }
             }
 
             is ExportComponent -> {
-                val progress = subject.getProgress() * 100
+                val progress = (exporting ?: subject).getProgress() * 100
                 if (progress != _exportProgress.value) {
                     _exportProgress.value = progress
                 }
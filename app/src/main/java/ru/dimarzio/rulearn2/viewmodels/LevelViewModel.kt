@@ -5,26 +5,25 @@ import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
-import ru.dimarzio.rulearn2.utils.toMutableStateMap
 
-class LevelViewModel(private val level: String, courseWords: Map<Int, Word>) : ViewModel() {
-    private val words = courseWords.filter { (_, word) -> word.level == level }.toMutableStateMap()
+class LevelViewModel(
+    private val level: String,
+    courseWords: CourseStore,
+    val clock: () -> Long = Word::now
+) : ViewModel() {
+    private var words by mutableStateOf(courseWords.selectRows { this.level == level })
 
     var sortMethod by mutableStateOf(SortMethod.Id)
     val sortedWords by derivedStateOf {
-        words.entries
-            .sortedWith(
-                compareBy { (id, word) ->
-                    when (sortMethod) {
-                        SortMethod.Id -> id
-                        SortMethod.Name -> word.name
-                        SortMethod.Repeat -> !word.isRepeat // descending
-                        SortMethod.Rate -> word.successRate
-                    }
-                }
-            )
-            .associate(Map.Entry<Int, Word>::toPair)
+        val now = clock()
+        when (sortMethod) {
+            SortMethod.Id -> words.view()
+            SortMethod.Name -> words.sortedRowsWith { name }
+            SortMethod.Repeat -> words.sortedRows { if (isRepeat(now)) 0 else 1 } // descending
+            SortMethod.Rate -> words.sortedRows { successRate.toOrderedBits() }
+        }
     }
 
     enum class SortMethod {
@@ -34,15 +33,18 @@ class LevelViewModel(private val level: String, courseWords: Map<Int, Word>) : V
         Rate
     }
 
+    // Float bits ordered as Float.compareTo orders the floats.
+    private fun Float.toOrderedBits() = toBits().let { bits -> if (bits < 0) bits xor Int.MAX_VALUE else bits }
+
     fun sort(method: SortMethod) {
         sortMethod = method
     }
 
     fun updateWord(id: Int, word: Word) {
-        if (word.level == level) {
-            words[id] = word
+        words = if (word.level == level) {
+            words.with(id, word)
         } else {
-            words -= id
+            words - id
         }
     }
 
@@ -14,10 +14,13 @@ import androidx.core.content.getSystemService
 import androidx.lifecycle.ViewModel
 import ru.dimarzio.rulearn2.application.Database
 import ru.dimarzio.rulearn2.application.RepeatReceiver
+import ru.dimarzio.rulearn2.utils.deleteInterruptedTempFiles
+import ru.dimarzio.rulearn2.utils.deleteTempFiles
 import ru.dimarzio.rulearn2.utils.notifyPermissionGranted
 import ru.dimarzio.rulearn2.utils.storagePermissionGranted
 import java.io.File
 import kotlin.String
+import kotlin.concurrent.thread
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.hours
 
@@ -99,14 +102,31 @@ class PreferencesViewModel(private val application: Application) : ViewModel() {
         }
     }
 
-    val database = Database(appFolder)
+    val journalDir = File(application.filesDir, "journal") // Internal even with a custom folder
+
+    val database = Database(appFolder, journalDir)
 
     val inDir = File(application.cacheDir, "in")
     val outDir: File = application.filesDir
+    val snapshotDir = File(application.filesDir, "snapshot")
+
+    // Per database folder, like the journals.
+    val coursesSnapshot = File(snapshotDir, appFolder.path.hashCode().toString())
 
     init {
         inDir.mkdir()
         outDir.mkdir()
+        journalDir.mkdir()
+        snapshotDir.mkdir()
+
+        // Left by imports the process died in; newer ones may belong to an import already running.
+        val started = System.currentTimeMillis()
+        thread {
+            runCatching {
+                appFolder.deleteInterruptedTempFiles(started)
+                snapshotDir.deleteTempFiles(started) // A few files
+            }
+        }
 
         settings = Settings(
             selectedCourse = selectedCourse,
@@ -1,8 +1,9 @@
 package ru.dimarzio.rulearn2.viewmodels.io.export
 
-import okio.use
+import ru.dimarzio.rulearn2.utils.crc32
 import java.io.File
-import java.util.zip.ZipEntry
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.zip.ZipOutputStream
 
 class Directory(private val folder: File, name: String) : ExportComponent(name) { // Leaf
@@ -13,14 +14,22 @@ class Directory(private val folder: File, name: String) : ExportComponent(name)
         val files = directory.walk().filter { file -> !file.isDirectory }.toList()
         val total = files.size
 
-        files.forEachIndexed { i, file ->
-            val entry = ZipEntry(file.path.removePrefix(folder.path + "/"))
+        val workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
 
-            zos.putNextEntry(entry)
-            file.inputStream().use { `is` -> `is`.copyTo(zos) }
+        try {
+            // CRCs of stored files are computed by the workers ahead of the (ordered) writer.
+            val crcs = files.map { file ->
+                if (file.isStored) workers.submit(Callable { file.crc32() }) else null
+            }
 
-            _progress = (i + 1f) / total
-            gofnotify()
+            files.forEachIndexed { i, file ->
+                zos.putFile(file, file.path.removePrefix(folder.path + "/"), crcs[i]?.get())
+
+                _progress = (i + 1f) / total
+                gofnotify()
+            }
+        } finally {
+            workers.shutdownNow()
         }
     }
 
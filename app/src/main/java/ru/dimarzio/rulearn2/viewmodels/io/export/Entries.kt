@@ -0,0 +1,38 @@
+package ru.dimarzio.rulearn2.viewmodels.io.export
+
+import java.io.File
+import java.io.FileInputStream
+import java.nio.channels.Channels
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+// Already compressed, deflating them only burns CPU.
+private val storedExtensions = setOf("mp3", "png", "jpg", "jpeg", "tflite")
+
+val File.isStored get() = extension.lowercase() in storedExtensions
+
+// Pass crc to write a STORED entry, null to deflate it.
+fun ZipOutputStream.putFile(file: File, name: String, crc: Long?) {
+    val entry = ZipEntry(name)
+
+    if (crc != null) {
+        entry.method = ZipEntry.STORED
+        entry.size = file.length()
+        entry.compressedSize = file.length()
+        entry.crc = crc
+    }
+
+    putNextEntry(entry)
+
+    FileInputStream(file).channel.use { channel ->
+        val target = Channels.newChannel(this) // Must not be closed, it closes this.
+        val size = channel.size()
+
+        var position = 0L
+        while (position < size) {
+            position += channel.transferTo(position, size - position, target)
+        }
+    }
+
+    closeEntry()
+}
\ No newline at end of file
@@ -9,7 +9,7 @@ open class ExportComposite(name: String) : ExportComponent(name) { // Composite
 
     override fun export(zos: ZipOutputStream) {
         _children.forEach { child ->
-            if (child is Directory) {
+            if (child is Directory || child is Table || child is ExportComposite) {
                 copy(child)
             }
             child.export(zos)
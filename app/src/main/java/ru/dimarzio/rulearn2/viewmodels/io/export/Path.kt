@@ -1,7 +1,7 @@
 package ru.dimarzio.rulearn2.viewmodels.io.export
 
+import ru.dimarzio.rulearn2.utils.crc32
 import java.io.File
-import java.util.zip.ZipEntry
 import java.util.zip.ZipOutputStream
 
 class Path(name: String) : ExportComponent(name) { // Leaf
@@ -9,10 +9,7 @@ class Path(name: String) : ExportComponent(name) { // Leaf
         val file = File(name)
 
         if (file.exists()) {
-            val entry = ZipEntry(file.name)
-
-            zos.putNextEntry(entry)
-            file.inputStream().use { `is` -> `is`.copyTo(zos) }
+            zos.putFile(file, file.name, if (file.isStored) file.crc32() else null)
         }
     }
 }
\ No newline at end of file
@@ -7,12 +7,35 @@ import java.util.zip.ZipEntry
 import java.util.zip.ZipOutputStream
 
 open class Table(private val database: Database, name: String) : ExportComponent(name) { // Leaf
+    private var _progress = super.getProgress()
+
+    companion object {
+        private const val NOTIFY_EVERY = 1000 // Rows
+    }
+
     @OptIn(KotlinCsvExperimental::class)
     override fun export(zos: ZipOutputStream) {
         val entry = ZipEntry("$name.csv")
         zos.putNextEntry(entry)
 
-        // TODO: Track the progress
-        csvWriter().openAndGetRawWriter(zos).writeRows(database.exportTable(name))
+        val writer = csvWriter().openAndGetRawWriter(zos) // Must not be closed, it closes zos.
+
+        database.exportTable(name) { row, index, total ->
+            writer.writeRow(row)
+
+            if ((index + 1) % NOTIFY_EVERY == 0 || index + 1 == total) {
+                _progress = (index + 1f) / total
+                gofnotify()
+            }
+        }
+
+        writer.flush()
+
+        _progress = 1f
+        gofnotify()
+    }
+
+    override fun getProgress(): Float {
+        return _progress
     }
 }
\ No newline at end of file
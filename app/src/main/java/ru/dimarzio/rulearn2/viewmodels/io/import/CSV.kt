@@ -6,6 +6,8 @@ import java.io.FilterInputStream
 import java.io.InputStream
 
 class CSV(private val database: Database, name: String) : ImportComponent(name) { // Leaf
+    private var progress = super.getProgress()
+
     override fun import(`is`: InputStream) {
         val tableName = name.removeSuffix(".csv")
 
@@ -13,14 +15,35 @@ class CSV(private val database: Database, name: String) : ImportComponent(name)
         database.createCourse(tableName)
 
         val wrapper = object : FilterInputStream(`is`) {
+            var bytesRead = 0L
+
+            override fun read(): Int {
+                return super.read().also { byte -> if (byte != -1) bytesRead++ }
+            }
+
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                return super.read(b, off, len).also { count -> if (count > 0) bytesRead += count }
+            }
+
             override fun close() {
                 // Avoid closing `is`
             }
         }
 
-        val lines = csvReader { skipEmptyLine = true }.readAll(wrapper)
-        database.importLines(tableName, lines)
+        csvReader { skipEmptyLine = true }.open(wrapper) {
+            database.importLines(tableName, readAllAsSequence()) {
+                if (length > 0) {
+                    progress = (wrapper.bytesRead.toFloat() / length).coerceAtMost(1f)
+                    gofnotify()
+                }
+            }
+        }
+
+        progress = 1f
+        gofnotify()
+    }
 
-        gofnotify() // TODO: Track the progress
+    override fun getProgress(): Float {
+        return progress
     }
 }
\ No newline at end of file
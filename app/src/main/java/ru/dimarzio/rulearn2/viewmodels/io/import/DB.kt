@@ -1,10 +1,15 @@
 package ru.dimarzio.rulearn2.viewmodels.io.import
 
-import java.io.File
+import ru.dimarzio.rulearn2.application.Database
+import ru.dimarzio.rulearn2.utils.writeAtomically
 import java.io.InputStream
 
-class DB(private val file: File, name: String) : ImportComponent(name) { // Leaf
+class DB(private val database: Database, name: String) : ImportComponent(name) { // Leaf
     override fun import(`is`: InputStream) {
-        file.outputStream().use { os -> `is`.copyTo(os) }
+        database.replace { file ->
+            if (!isUnchanged(file)) {
+                file.writeAtomically(`is`, sync = true)
+            }
+        }
     }
 }
\ No newline at end of file
@@ -1,9 +1,14 @@
 package ru.dimarzio.rulearn2.viewmodels.io.import
 
+import ru.dimarzio.rulearn2.utils.crc32
 import ru.dimarzio.rulearn2.viewmodels.Subject
+import java.io.File
 import java.io.InputStream
 
 open class ImportComponent(val name: String) : Subject() { // GoF Composite
+    var length = -1L // Bytes expected from the imported stream, -1 if unknown
+    var crc = -1L // CRC-32 of the imported stream, -1 if unknown
+
     open fun import(`is`: InputStream) {
         println("Skipped $name")
     }
@@ -19,4 +24,9 @@ open class ImportComponent(val name: String) : Subject() { // GoF Composite
     open fun getProgress(): Float { // 0 is 0% and 1 is 100%
         return 0f
     }
+
+    // True if file already holds what is about to be imported (size and CRC-32 match).
+    protected fun isUnchanged(file: File): Boolean {
+        return crc != -1L && file.exists() && file.length() == length && file.crc32() == crc
+    }
 }
\ No newline at end of file
@@ -7,7 +7,7 @@ class ImportFactory(private val database: Database, private val folder: File) {
     fun create(name: String): ImportComponent {
         return when (name.substringAfterLast('.')) { // Extension
             "csv" -> CSV(database, name)
-            "db" -> DB(database.path, name)
+            "db" -> DB(database, name)
             "png", "jpg", "mp3", "tflite", "ckpt" -> Media(folder, name)
             "zip" -> ZIP(this, name)
             else -> ImportComponent(name)
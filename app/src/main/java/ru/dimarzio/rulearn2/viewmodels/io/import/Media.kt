@@ -1,5 +1,7 @@
 package ru.dimarzio.rulearn2.viewmodels.io.import
 
+import ru.dimarzio.rulearn2.utils.crc32
+import ru.dimarzio.rulearn2.utils.writeAtomically
 import java.io.File
 import java.io.InputStream
 
@@ -7,9 +9,8 @@ class Media(private val folder: File, name: String) : ImportComponent(name) {
     override fun import(`is`: InputStream) {
         val file = File(folder, name)
 
-        file.parentFile?.mkdirs()
-        file.createNewFile()
-
-        file.outputStream().use { os -> `is`.copyTo(os) }
+        if (!isUnchanged(file)) {
+            file.writeAtomically(`is`)
+        }
     }
 }
\ No newline at end of file
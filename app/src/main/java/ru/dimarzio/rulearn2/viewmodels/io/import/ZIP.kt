@@ -1,31 +1,86 @@
 package ru.dimarzio.rulearn2.viewmodels.io.import
 
+import java.io.File
 import java.io.InputStream
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.zip.ZipEntry
-import java.util.zip.ZipInputStream
+import java.util.zip.ZipFile
 
 class ZIP(private val factory: ImportFactory, name: String) : ImportComposite(name) { // Composite
+    @Volatile
     private var progress = super.getProgress()
 
+    private val ZipEntry.order // Database first, then course tables, _stat and _ml, then media.
+        get() = when {
+            name.endsWith(".db") -> 0
+            name.endsWith("_stat.csv") || name.endsWith("_ml.csv") -> 2
+            name.endsWith(".csv") -> 1
+            else -> 3
+        }
+
     override fun import(`is`: InputStream) {
-        ZipInputStream(`is`).use { zis ->
-            val total = `is`.available() // zis.available returns something different
+        // A seekable copy gives access to the central directory: entry order and sizes are known upfront.
+        val temp = File.createTempFile("import", ".zip")
+
+        try {
+            temp.outputStream().use { os -> `is`.copyTo(os, 1 shl 16) }
+
+            ZipFile(temp).use { zip ->
+                val entries = zip.entries()
+                    .asSequence()
+                    .filterNot(ZipEntry::isDirectory)
+                    .sortedBy { entry -> entry.order }
+                    .toList()
+
+                val total = entries.sumOf { entry -> entry.compressedSize }.coerceAtLeast(1)
+                var done = 0L
+
+                val onImported = { entry: ZipEntry ->
+                    synchronized(this) {
+                        done += entry.compressedSize
+                        progress = done.toFloat() / total
+                    }
+                    gofnotify()
+                }
 
-            lateinit var entry: ZipEntry
-            while (zis.nextEntry?.let { entry = it } != null) {
-                if (!entry.isDirectory) {
-                    val child = factory.create(entry.name)
+                val (media, tables) = entries
+                    .map { entry -> entry to factory.create(entry.name) }
+                    .partition { (_, child) -> child is Media }
+
+                tables.forEach { (entry, child) ->
                     if (child is ZIP || child is CSV) {
                         copy(child)
                     }
                     add(child)
-                    child.import(zis)
+                    child.length = entry.size
+                    child.crc = entry.crc
+
+                    zip.getInputStream(entry).use { eis -> child.import(eis) }
+                    onImported(entry)
                 }
-                zis.closeEntry()
 
-                progress = total.toFloat() / `is`.available() // Should be opposite, idk how that works??
-                gofnotify()
+                val workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+
+                try {
+                    val futures = media.map { (entry, child) ->
+                        add(child)
+                        child.length = entry.size
+                        child.crc = entry.crc
+
+                        workers.submit(Callable {
+                            zip.getInputStream(entry).use { eis -> child.import(eis) }
+                            onImported(entry)
+                        })
+                    }
+
+                    futures.forEach { future -> future.get() } // Rethrows failures.
+                } finally {
+                    workers.shutdownNow()
+                }
             }
+        } finally {
+            temp.delete()
         }
     }
 
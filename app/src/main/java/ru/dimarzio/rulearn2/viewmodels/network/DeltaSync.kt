@@ -0,0 +1,149 @@
+package ru.dimarzio.rulearn2.viewmodels.network
+
+import ru.dimarzio.rulearn2.application.Database.Mark
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/*
+ * Sends only the rows a peer has not merged yet instead of the whole database.
+ * Puller: SYNC; peer: SUMM(device, courses); puller: WANT(course marks); peer: DELT(rows).
+ * The peer answers FULL when it can't build a delta, the puller then falls back to the file.
+ * Every message is a four letters tag followed by a deflated body.
+ */
+class DeltaSync(private val store: Store, private val transport: Transport) {
+    interface Transport {
+        fun send(message: ByteArray)
+
+        // Messages are written as they are built, a transport may stream them somewhere else than memory.
+        fun send(write: (OutputStream) -> Unit) = send(ByteArrayOutputStream().also(write).toByteArray())
+    }
+
+    interface Store {
+        val device: String
+        val courses: List<String>
+
+        fun getMark(peer: String, course: String): Mark
+        fun exportDelta(course: String, since: Mark, onRow: (table: String, row: List<String>) -> Unit)
+        // Course tables go first. Rows are read from the message as they are iterated, table after table, once.
+        fun onDelta(peer: String, tables: Sequence<Pair<String, Sequence<List<String>>>>)
+    }
+
+    companion object {
+        const val SYNC = "SYNC"
+        const val SUMMARY = "SUMM"
+        const val WANT = "WANT"
+        const val DELTA = "DELT"
+        const val FULL = "FULL"
+
+        private val tags = listOf(SYNC, SUMMARY, WANT, DELTA, FULL)
+
+        fun isMessage(bytes: ByteArray) = bytes.size >= 4 && String(bytes, 0, 4) in tags
+    }
+
+    lateinit var onFallback: () -> Unit // Full file is needed
+    var onError: (Throwable) -> Unit = {} // The failure could not even be answered
+
+    fun pull() = send(SYNC) {}
+
+    fun onReceived(message: ByteArray) = onReceived(ByteArrayInputStream(message))
+
+    // Blocks on the store, so it is called off the main thread.
+    fun onReceived(input: InputStream) {
+        val tag = ByteArray(4).also { DataInputStream(input).readFully(it) }.let(::String)
+        val result = runCatching {
+            read(input) {
+                when (tag) {
+                    SYNC -> send(SUMMARY) {
+                        writeUTF(store.device)
+                        writeStrings(store.courses)
+                    }
+
+                    SUMMARY -> {
+                        val peer = readUTF()
+                        val courses = readStrings()
+
+                        send(WANT) {
+                            writeInt(courses.size)
+                            courses.forEach { course ->
+                                val mark = store.getMark(peer, course)
+                                writeUTF(course)
+                                writeInt(mark.id)
+                                writeLong(mark.modified)
+                            }
+                        }
+                    }
+
+                    WANT -> {
+                        val marks = List(readInt()) { readUTF() to Mark(readInt(), readLong()) }
+                        send(DELTA) {
+                            writeUTF(store.device)
+                            marks.forEach { (course, mark) ->
+                                store.exportDelta(course, mark) { table, row ->
+                                    writeBoolean(true)
+                                    writeUTF(table)
+                                    writeStrings(row)
+                                }
+                            }
+                            writeBoolean(false)
+                        }
+                    }
+
+                    DELTA -> {
+                        val peer = readUTF()
+                        var table = if (readBoolean()) readUTF() else null // Of the next row
+
+                        val tables = sequence {
+                            while (table != null) {
+                                val current = table!!
+                                val rows = sequence {
+                                    while (table == current) {
+                                        yield(readStrings())
+                                        table = if (readBoolean()) readUTF() else null
+                                    }
+                                }
+
+                                yield(current to rows)
+                                rows.forEach { } // What the store did not read is skipped.
+                            }
+                        }
+
+                        store.onDelta(peer, tables)
+                    }
+
+                    FULL -> onFallback()
+                }
+            }
+        }
+
+        result.onFailure {
+            runCatching {
+                when (tag) {
+                    SYNC, WANT -> send(FULL) {} // Peer failed to answer.
+                    else -> onFallback() // Puller failed to continue.
+                }
+            }.onFailure(onError)
+        }
+    }
+
+    private fun send(tag: String, body: DataOutputStream.() -> Unit) = transport.send { os ->
+        os.write(tag.toByteArray())
+        DataOutputStream(DeflaterOutputStream(os)).use(body)
+    }
+
+    private inline fun read(input: InputStream, body: DataInputStream.() -> Unit) {
+        DataInputStream(InflaterInputStream(input)).use(body)
+    }
+
+    private fun DataOutputStream.writeStrings(strings: List<String>) {
+        writeInt(strings.size)
+        strings.forEach(::writeUTF)
+    }
+
+    private fun DataInputStream.readStrings() = List(readInt()) { readUTF() }
+}
@@ -1,7 +1,10 @@
 package ru.dimarzio.rulearn2.viewmodels.network
 
+import android.content.ContentResolver
 import android.net.Uri
 import android.os.Build
+import android.os.Handler
+import android.os.Looper
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateMapOf
 import androidx.compose.runtime.mutableStateOf
@@ -11,6 +14,7 @@ import com.google.android.gms.nearby.connection.ConnectionInfo
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback
 import com.google.android.gms.nearby.connection.ConnectionResolution
 import com.google.android.gms.nearby.connection.ConnectionsClient
+import com.google.android.gms.nearby.connection.ConnectionsClient.MAX_BYTES_DATA_SIZE
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo
 import com.google.android.gms.nearby.connection.DiscoveryOptions
 import com.google.android.gms.nearby.connection.EndpointDiscoveryCallback
@@ -21,17 +25,37 @@ import com.google.android.gms.nearby.connection.Strategy
 import ru.dimarzio.rulearn2.BuildConfig
 import ru.dimarzio.rulearn2.application.Database
 import ru.dimarzio.rulearn2.viewmodels.ErrorHandler
+import java.io.File
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
 
 class P2PManager(
     private val client: ConnectionsClient,
     private val database: Database,
-    private val handler: ErrorHandler
+    private val handler: ErrorHandler,
+    private val resolver: ContentResolver,
+    private val cacheDir: File
 ) {
+    private val syncs = mutableMapOf<String, DeltaSync>()
+
+    // Deltas are built and merged off the main thread, one message at a time.
+    private val worker = Executors.newSingleThreadExecutor()
+    private val main = Handler(Looper.getMainLooper())
+
+    // Kept apart from the full copies in cacheDir, which can be replicated again later.
+    private val deltaDir = File(cacheDir, "deltas")
+    private val sending = ConcurrentHashMap<Long, File>() // Payload id to the file it is sent from
+
     private val payloadCallback = object : PayloadCallback() {
         override fun onPayloadReceived(id: String, payload: Payload) {
             when (payload.type) {
                 Payload.Type.BYTES -> {
-                    if (String(payload.asBytes() ?: byteArrayOf()) == "PULL") {
+                    val bytes = payload.asBytes() ?: byteArrayOf()
+                    if (DeltaSync.isMessage(bytes)) {
+                        val sync = getSync(id)
+                        worker.execute { sync.onReceived(bytes) }
+                    } else if (String(bytes) == "PULL") {
                         client.sendPayload(id, Payload.fromFile(database.path))
                     }
                 }
@@ -39,17 +63,35 @@ class P2PManager(
                 Payload.Type.FILE -> {
                     val uri = payload.asFile()?.asUri()
                     if (uri != null) {
-                        onFileReceived(id, uri)
+                        val isDelta = runCatching { isDelta(uri) }
+                            .onFailure(handler::onErrorHandled)
+                            .getOrDefault(false)
+
+                        if (isDelta) {
+                            val sync = getSync(id)
+                            worker.execute {
+                                runCatching { resolver.openInputStream(uri)?.use(sync::onReceived) }
+                                    .onFailure { e -> main.post { handler.onErrorHandled(e) } }
+
+                                client.disconnectFromEndpoint(id)
+                            }
+                        } else {
+                            onFileReceived(id, uri)
+                            client.disconnectFromEndpoint(id)
+                        }
                     } else {
                         handler.onMessageReceived("Error.")
+                        client.disconnectFromEndpoint(id)
                     }
-
-                    client.disconnectFromEndpoint(id)
                 }
             }
         }
 
         override fun onPayloadTransferUpdate(id: String, update: PayloadTransferUpdate) {
+            if (update.status != PayloadTransferUpdate.Status.IN_PROGRESS) {
+                sending.remove(update.payloadId)?.delete()
+            }
+
             when (update.status) {
                 PayloadTransferUpdate.Status.IN_PROGRESS -> {
                     transferProgress = update.bytesTransferred.toFloat() / update.totalBytes * 100
@@ -95,6 +137,7 @@ class P2PManager(
     }
 
     lateinit var onFileReceived: (String, Uri) -> Unit // Id & Uri
+    lateinit var onDeltaReceived: (String, File) -> Unit // Id & database with the changed rows only
 
     val endpoints = mutableStateMapOf<String, String>()
 
@@ -176,6 +219,13 @@ class P2PManager(
     }
 
     fun pull() {
+        if (connectedId != null) {
+            getSync(connectedId!!).pull()
+        }
+    }
+
+    // Whole database, as before delta sync.
+    fun pullFull() {
         if (connectedId != null) {
             client.sendPayload(connectedId!!, Payload.fromBytes("PULL".toByteArray()))
         }
@@ -183,5 +233,84 @@ class P2PManager(
 
     fun stop() {
         client.stopAllEndpoints()
+        syncs.clear()
+
+        sending.values.forEach(File::delete)
+        sending.clear()
+    }
+
+    private fun getSync(id: String) = syncs.getOrPut(id) {
+        DeltaSync(DatabaseStore(id), PayloadTransport(id)).apply {
+            onFallback = ::pullFull
+            onError = { e -> main.post { handler.onErrorHandled(e) } }
+        }
+    }
+
+    // Large deltas come as files, false if the file is a database.
+    private fun isDelta(uri: Uri): Boolean {
+        val tag = ByteArray(4)
+        return resolver.openInputStream(uri)?.use { `is` ->
+            `is`.read(tag) == tag.size && String(tag) == DeltaSync.DELTA
+        } == true
+    }
+
+    private inner class PayloadTransport(private val id: String) : DeltaSync.Transport {
+        override fun send(message: ByteArray) = send { os -> os.write(message) }
+
+        // Streamed to a file of its own, deleted once sent, so a large delta is never held in memory.
+        override fun send(write: (OutputStream) -> Unit) {
+            deltaDir.mkdirs()
+            val file = File.createTempFile("$id.", ".out", deltaDir)
+
+            try {
+                file.outputStream().buffered().use(write)
+            } catch (e: Throwable) {
+                file.delete()
+                throw e
+            }
+
+            val payload = if (file.length() <= MAX_BYTES_DATA_SIZE) {
+                Payload.fromBytes(file.readBytes()).also { file.delete() }
+            } else {
+                Payload.fromFile(file).also { payload -> sending[payload.id] = file }
+            }
+
+            client.sendPayload(id, payload)
+        }
+    }
+
+    private inner class DatabaseStore(private val id: String) : DeltaSync.Store {
+        override val device get() = database.device
+        override val courses get() = database.getCoursesNames()
+
+        override fun getMark(peer: String, course: String) = database.getMark(peer, course)
+
+        override fun exportDelta(
+            course: String,
+            since: Database.Mark,
+            onRow: (table: String, row: List<String>) -> Unit
+        ) = database.exportDelta(course, since, onRow)
+
+        // Rows are written to a database of their own as they are read, which is then replicated as usual.
+        override fun onDelta(peer: String, tables: Sequence<Pair<String, Sequence<List<String>>>>) {
+            val folder = File(deltaDir, "$id.d")
+            folder.deleteRecursively()
+            folder.mkdirs()
+
+            Database(folder).use {
+                this.device = peer
+                tables.forEach { (table, rows) ->
+                    createCourse(table)
+                    importLines(table, rows)
+                }
+            }
+
+            val file = File(deltaDir, "$id.db")
+            File(folder, Database.DB_NAME).copyTo(file, overwrite = true)
+            folder.deleteRecursively()
+
+            client.disconnectFromEndpoint(id)
+            main.post { onDeltaReceived(id, file) }
+        }
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package ru.dimarzio.rulearn2.viewmodels.sessions
 
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.tflite.TFLiteModel
@@ -12,7 +13,7 @@ import ru.dimarzio.rulearn2.viewmodels.sessions.difficult.TypingState
 
 class DifficultWordsViewModel(
     private val model: TFLiteModel?,
-    courseWords: Map<Int, Word>,
+    courseWords: CourseStore,
     level: String?,
     limit: Int
 ) : SessionViewModel(DifficultWordsImp(courseWords, level, limit)) {
@@ -3,34 +3,72 @@ package ru.dimarzio.rulearn2.viewmodels.sessions
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.utils.percentageFrom
+import java.util.Collections
+import kotlin.random.Random
 
-class LearnNewWordsImp(courseWords: Map<Int, Word>, level: String?, limit: Int) : SessionViewModelImp() {
+class LearnNewWordsImp(
+    courseWords: CourseStore,
+    level: String?,
+    limit: Int,
+    private val random: Random = Random.Default
+) : SessionViewModelImp() {
     private val words: MutableMap<Int, Word> =
-        (level?.let { courseWords.filter { (_, word) -> word.level == level } } ?: courseWords)
-            .filter { (_, word) -> !word.learned && !word.skip }
+        courseWords
+            .selectRows { (level == null || this.level == level) && !learned && !skip }
             .asSequence()
             .take(limit)
             .associateTo(mutableMapOf(), Map.Entry<Int, Word>::toPair)
 
+    // Words still to learn and the rest, kept up to date by emend & neglect.
+    private val candidates = RandomSet()
+    private val traversed = mutableMapOf<Int, Word>()
+    private var ratings = 0
+
     private var currentWord by mutableStateOf(null as SessionWord?)
 
+    init {
+        words.forEach { (id, word) -> place(id, word) }
+    }
+
+    private fun place(id: Int, word: Word) {
+        if (!word.learned && !word.skip) {
+            candidates.add(id)
+        } else {
+            traversed[id] = word
+        }
+
+        ratings += word.rating
+    }
+
+    private fun displace(id: Int, word: Word) {
+        candidates.remove(id)
+        traversed.remove(id)
+
+        ratings -= word.rating
+    }
+
     override fun getTraversed(): Map<Int, Word> {
-        return words.filter { (_, word) -> word.learned || word.skip }
+        return Collections.unmodifiableMap(traversed)
     }
 
     override fun getProgress(): Float {
-        return words.values.sumOf(Word::rating) percentageFrom words.size * 10
+        return ratings percentageFrom words.size * 10
     }
 
     override fun neglect(id: Int) {
-        words.remove(id)
+        words.remove(id)?.let { word -> displace(id, word) }
         gofnotify()
     }
 
     override fun emend(word: SessionWord) {
-        words[word.getId()] = word.getWord()
+        val id = word.getId()
+
+        words.put(id, word.getWord())?.let { old -> displace(id, old) }
+        place(id, word.getWord())
+
         gofnotify()
     }
 
@@ -43,22 +81,16 @@ class LearnNewWordsImp(courseWords: Map<Int, Word>, level: String?, limit: Int)
         }
     }
 
-    override fun next() {
-        val candidates = words.filter { (_, word) -> !word.learned && !word.skip }
-
-        val nextEntry = candidates
-            .filter { (id, _) -> id != currentWord?.getId() }
-            .ifEmpty { candidates }
-            .entries.randomOrNull()
+    override fun next() { // Any other candidate, the same one only if it is the last.
+        val id = candidates.random(currentWord?.getId(), random)
 
-        if (nextEntry != null) {
-            val (id, word) = nextEntry
-            currentWord = WordAdapter(id, word)
+        if (id != null) {
+            currentWord = WordAdapter(id, words.getValue(id))
         }
     }
 
     override fun isDone(): Boolean {
-        return words.all { (_, word) -> word.learned || word.skip }
+        return candidates.isEmpty()
     }
 
     override fun current(): SessionWord? {
@@ -1,11 +1,11 @@
 package ru.dimarzio.rulearn2.viewmodels.sessions
 
-import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
 
 class LearnWordsViewModel(
-    courseWords: Map<Int, Word>,
+    courseWords: CourseStore,
     level: String?,
     limit: Int
 ) : SessionViewModel(LearnNewWordsImp(courseWords, level, limit)) {
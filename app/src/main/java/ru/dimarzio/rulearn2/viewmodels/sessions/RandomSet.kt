@@ -0,0 +1,55 @@
+package ru.dimarzio.rulearn2.viewmodels.sessions
+
+import kotlin.random.Random
+
+// Ids in an array and their positions in a map, so adding, removing and a random pick are O(1).
+class RandomSet(ids: Iterable<Int> = emptyList()) {
+    private val items = ArrayList<Int>()
+    private val positions = HashMap<Int, Int>()
+
+    val size get() = items.size
+
+    init {
+        ids.forEach(::add)
+    }
+
+    fun isEmpty() = items.isEmpty()
+
+    operator fun contains(id: Int) = id in positions
+
+    fun add(id: Int): Boolean {
+        if (id in positions) {
+            return false
+        }
+
+        positions[id] = items.size
+        items.add(id)
+        return true
+    }
+
+    fun remove(id: Int): Boolean { // The last id takes the place of the removed one.
+        val position = positions.remove(id) ?: return false
+
+        val last = items.removeAt(items.lastIndex)
+        if (position < items.size) {
+            items[position] = last
+            positions[last] = position
+        }
+
+        return true
+    }
+
+    fun random(random: Random = Random.Default): Int? {
+        return if (items.isNotEmpty()) items[random.nextInt(items.size)] else null
+    }
+
+    // Any id but except, unless it is the only one.
+    fun random(except: Int?, random: Random = Random.Default): Int? {
+        if (except == null || except !in positions || items.size == 1) {
+            return random(random)
+        }
+
+        val id = items[random.nextInt(items.size - 1)] // All but the last one.
+        return if (id != except) id else items.last()
+    }
+}
\ No newline at end of file
@@ -1,59 +1,117 @@
 package ru.dimarzio.rulearn2.viewmodels.sessions
 
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.utils.percentageFrom
+import java.util.Collections
+import java.util.TreeMap
+import java.util.TreeSet
+
+class ReviewImp(
+    courseWords: CourseStore,
+    level: String?,
+    limit: Int,
+    private val clock: () -> Long = Word::now
+) : SessionViewModelImp() {
+    private val now = clock() // Words due since the session started.
 
-class ReviewImp(courseWords: Map<Int, Word>, level: String?, limit: Int) : SessionViewModelImp() {
     private val words: MutableMap<Int, Word> =
-        (level?.let { courseWords.filter { (_, word) -> word.level == level } } ?: courseWords)
-            .filter { (_, word) -> word.isRepeat }.entries
+        courseWords
+            .selectRows { (level == null || this.level == level) && isRepeat(now) }.entries
             .shuffled()
             .sortedBy { (_, word) -> word.rating }
             .take(limit)
             .associateTo(mutableMapOf(), Map.Entry<Int, Word>::toPair)
 
+    // Words to repeat by rating, the lowest one goes first; the rest is traversed.
+    private val queue = TreeMap<Int, RandomSet>()
+    private val traversed = mutableMapOf<Int, Word>()
+
+    // Traversed words by the time they are due again, promoted back to the queue on next().
+    private val upcoming = TreeSet(compareBy<Pair<Long, Int>>({ (dueAt, _) -> dueAt }, { (_, id) -> id }))
+
     private var currentWord = null as SessionWord?
 
+    init {
+        words.forEach { (id, word) -> place(id, word) }
+    }
+
+    private fun place(id: Int, word: Word) {
+        if (word.isRepeat(clock())) {
+            queue.getOrPut(word.rating, ::RandomSet).add(id)
+        } else {
+            traversed[id] = word
+            if (word.dueAt != Word.NEVER) {
+                upcoming.add(word.dueAt to id)
+            }
+        }
+    }
+
+    private fun displace(id: Int, word: Word) {
+        val ids = queue[word.rating]
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            queue.remove(word.rating)
+        }
+
+        traversed.remove(id)?.let { old -> upcoming.remove(old.dueAt to id) }
+    }
+
+    // Words which have become due meanwhile, as the whole session was rescanned before.
+    private fun promote(): Boolean {
+        val now = clock()
+        var promoted = false
+
+        while (upcoming.isNotEmpty() && upcoming.first().first <= now) {
+            val (_, id) = upcoming.pollFirst()!!
+            val word = traversed.remove(id)!!
+
+            queue.getOrPut(word.rating, ::RandomSet).add(id)
+            promoted = true
+        }
+
+        return promoted
+    }
+
     override fun getProgress(): Float {
-        return words.count { (_, word) -> !word.isRepeat } percentageFrom words.size
+        return traversed.size percentageFrom words.size
     }
 
     override fun getTraversed(): Map<Int, Word> {
-        return words.filterNot { (_, word) -> word.isRepeat }
+        return Collections.unmodifiableMap(traversed)
     }
 
     override fun neglect(id: Int) {
-        words.remove(id)
+        words.remove(id)?.let { word -> displace(id, word) }
         gofnotify()
     }
 
     override fun emend(word: SessionWord) {
-        words[word.getId()] = word.getWord()
+        val id = word.getId()
+
+        words.put(id, word.getWord())?.let { old -> displace(id, old) }
+        place(id, word.getWord())
+
         gofnotify()
     }
 
     override fun first() {
-       val entry = words.entries.firstOrNull()
-        if (entry != null) {
-            val (id, word) = entry
-            currentWord = WordAdapter(id, word)
-        }
+        next()
     }
 
-    override fun next() {
-        val entry = words.entries
-            .shuffled()
-            .sortedBy { (_, word) -> word.rating }
-            .find { (_, word) -> word.isRepeat }
+    override fun next() { // Random one of the lowest rating.
+        if (promote()) {
+            gofnotify()
+        }
+
+        val id = queue.firstEntry()?.value?.random()
 
-        if (entry != null) {
-            val (id, word) = entry
-            currentWord = WordAdapter(id, word)
+        if (id != null) {
+            currentWord = WordAdapter(id, words.getValue(id))
         }
     }
 
     override fun isDone(): Boolean {
-        return words.none { (_, word) -> word.isRepeat }
+        return queue.isEmpty() && upcoming.firstOrNull()?.let { (dueAt, _) -> dueAt > clock() } != false
     }
 
     override fun current(): SessionWord? {
@@ -1,5 +1,6 @@
 package ru.dimarzio.rulearn2.viewmodels.sessions
 
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.routes.SessionRoutes
 import ru.dimarzio.rulearn2.tflite.Features
@@ -10,10 +11,11 @@ import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel.Session
 open class ReviewViewModel(
     private val model: TFLiteModel?,
     private val type: Session,
-    courseWords: Map<Int, Word>,
+    courseWords: CourseStore,
     level: String?,
-    limit: Int
-) : SessionViewModel(ReviewImp(courseWords, level, limit)) {
+    limit: Int,
+    private val clock: () -> Long = Word::now
+) : SessionViewModel(ReviewImp(courseWords, level, limit, clock)) {
     override fun makeRoute(word: SessionWord): SessionRoutes? {
         return if (type == Session.GuessingReview) {
             SessionRoutes.GuessingTest
@@ -25,7 +27,7 @@ open class ReviewViewModel(
     override fun makeWord(prototype: SessionWord, correct: Boolean, hintsUsed: Int): SessionWord {
         val word = prototype.getWord()
 
-        val newAccessed = System.currentTimeMillis()
+        val newAccessed = clock()
 
         val rating = word.rating
         val repetitions = word.repetitions
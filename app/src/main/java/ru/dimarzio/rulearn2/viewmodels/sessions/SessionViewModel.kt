@@ -4,6 +4,7 @@ import androidx.compose.runtime.derivedStateOf
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableIntStateOf
 import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.neverEqualPolicy
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
 import kotlinx.coroutines.channels.Channel
@@ -24,7 +25,7 @@ open class SessionViewModel(protected val imp: SessionViewModelImp) : ViewModel(
         protected set
 
     open val progress by derivedStateOf { imp.getProgress().also { version } }
-    open val rote by derivedStateOf { imp.getTraversed().also { version } }
+    open val rote by derivedStateOf(neverEqualPolicy()) { imp.getTraversed().also { version } } // May be a live view
     open val ended by derivedStateOf { imp.isDone().also { version } }
 
     init {
@@ -3,46 +3,88 @@ package ru.dimarzio.rulearn2.viewmodels.sessions.difficult
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
+import ru.dimarzio.rulearn2.models.CourseStore
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.utils.percentageFrom
+import ru.dimarzio.rulearn2.viewmodels.sessions.RandomSet
 import ru.dimarzio.rulearn2.viewmodels.sessions.SessionViewModelImp
 import ru.dimarzio.rulearn2.viewmodels.sessions.SessionWord
+import java.util.Collections
+import kotlin.random.Random
 
 class DifficultWordsImp(
-    courseWords: Map<Int, Word>,
+    courseWords: CourseStore,
     level: String?,
-    limit: Int
+    limit: Int,
+    private val random: Random = Random.Default
 ) : SessionViewModelImp() {
     private val words: MutableMap<Int, DifficultWord> =
-        (level?.let { courseWords.filter { (_, word) -> word.level == level } } ?: courseWords)
+        courseWords
+            .selectRows { (level == null || this.level == level) && isDifficult }
             .entries // There is no take(limit) in map
-            .filter { (_, word) -> word.isDifficult }
             .take(limit)
             .associate { (id, word) -> id to DifficultWord(id, word) }
             .toMutableMap()
 
+    /*
+     * Words still difficult and the rest, with the levels they were counted with:
+     * a DifficultWord is answered in place, so its old level is gone by the time of emend.
+     */
+    private val candidates = RandomSet()
+    private val traversed = mutableMapOf<Int, Word>()
+    private val levels = HashMap<Int, Int>()
+    private var level = 0
+
     private var currentWord by mutableStateOf(null as DifficultWordAdapter?)
 
+    init {
+        words.values.forEach(::place)
+    }
+
+    private fun place(word: DifficultWord) {
+        if (word.word.isDifficult) {
+            candidates.add(word.id)
+        } else {
+            traversed[word.id] = word.word
+        }
+
+        levels[word.id] = word.getLevel()
+        level += word.getLevel()
+    }
+
+    private fun displace(id: Int) {
+        candidates.remove(id)
+        traversed.remove(id)
+
+        level -= levels.remove(id) ?: 0
+    }
+
     override fun getTraversed(): Map<Int, Word> {
-        return words
-            .mapValues { (_, word) -> word.word }
-            .filterNot { (_, word) -> word.isDifficult }
+        return Collections.unmodifiableMap(traversed)
     }
 
     override fun getProgress(): Float {
-        return words.values
-            .sumOf(DifficultWord::getLevel)
-            .percentageFrom(words.size * MemorizedState.getLevel())
+        return level.percentageFrom(words.size * MemorizedState.getLevel())
     }
 
     override fun neglect(id: Int) {
-        words.remove(id)
+        if (words.remove(id) != null) {
+            displace(id)
+        }
+
         gofnotify()
     }
 
     override fun emend(word: SessionWord) {
-        words[word.getId()]?.word = word.getWord()
-        words[word.getId()]?.changeState((word.adaptee() as DifficultWord).state)
+        val difficultWord = words[word.getId()]
+
+        if (difficultWord != null) {
+            difficultWord.word = word.getWord()
+            difficultWord.changeState((word.adaptee() as DifficultWord).state)
+
+            displace(difficultWord.id)
+            place(difficultWord)
+        }
 
         gofnotify()
     }
@@ -56,7 +98,7 @@ class DifficultWordsImp(
     }
 
     override fun next() {
-        val word = words.values.filter { word -> word.word.isDifficult }.randomOrNull()
+        val word = candidates.random(random)?.let(words::getValue)
 
         if (word != null) {
             currentWord = DifficultWordAdapter(word)
@@ -64,7 +106,7 @@ class DifficultWordsImp(
     }
 
     override fun isDone(): Boolean {
-        return words.none { (_, word) -> word.word.isDifficult }
+        return candidates.isEmpty()
     }
 
     override fun current(): SessionWord? {
@@ -13,7 +13,7 @@ object TypingState : DifficultState() {
     override fun answer(context: DifficultWord, model: TFLiteModel?, correct: Boolean, hints: Int) {
         if (correct) {
             val newAccessed = System.currentTimeMillis()
-            val newWord = if (context.word.isRepeat) {
+            val newWord = if (context.word.isRepeat(newAccessed)) {
                 val repetitions = context.word.repetitions + 1
                 val correctAnswers = context.word.correctAnswers
                 val rating = context.word.rating.inc().coerceIn(0..Word.MAX_RATING)
@@ -0,0 +1,105 @@
+package ru.dimarzio.rulearn2.viewmodels.sessions.tests
+
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
+import kotlin.random.Random
+
+/*
+ * Similarity is the length of the longest prefix of the correct name found in a name,
+ * as in sortedBySimilarity2. Names containing the first one, two or three chars of the prefix
+ * are looked up by n-grams, so only those get compared and the rest is sampled at random.
+ * Equally similar names are taken in random order.
+ * Never changes once built, so questions generated at once share it; a new version of the course needs a new one.
+ */
+class DistractorIndex(words: WordRows, val version: Int) {
+    private val ids = words.ids()
+    private val postings: Map<Long, IntArray> // Uni-, bi- and trigrams
+
+    private fun String.gram(at: Int, n: Int): Long {
+        var gram = n.toLong() shl 48
+        for (i in at until at + n) {
+            gram = gram or (this[i].code.toLong() shl (16 * (i - at)))
+        }
+        return gram
+    }
+
+    init {
+        val lists = HashMap<Long, MutableList<Int>>()
+        words.forEachRow {
+            val grams = HashSet<Long>()
+            for (n in 1..3) {
+                for (i in 0..name.length - n) {
+                    grams.add(name.gram(i, n))
+                }
+            }
+            grams.forEach { gram -> lists.getOrPut(gram, ::mutableListOf).add(id) }
+        }
+        postings = lists.mapValues { (_, ids) -> ids.toIntArray() }
+    }
+
+    private fun similarity(name: String, to: String): Int {
+        var length = 0
+        while (length < to.length && name.contains(to.substring(0, length + 1))) {
+            length++
+        }
+        return length
+    }
+
+    // Visits the ids in random order till enough is taken: a partial shuffle keeping only the swapped slots aside.
+    private inline fun IntArray.sample(random: Random, enough: () -> Boolean, take: (Int) -> Unit) {
+        val swapped = HashMap<Int, Int>()
+        for (i in indices) {
+            if (enough()) {
+                return
+            }
+
+            val j = random.nextInt(i, size)
+            val id = swapped[j] ?: this[j]
+            swapped[j] = swapped[i] ?: this[i]
+            take(id)
+        }
+    }
+
+    /*
+     * Up to count ids of the most similar to name words, which pass accept.
+     * The index may be a bit behind words, which are looked up for the current state.
+     */
+    fun similar(
+        name: String,
+        words: Map<Int, Word>,
+        count: Int,
+        random: Random = Random.Default,
+        accept: (Int, Word) -> Boolean
+    ): List<Int> {
+        val result = mutableListOf<Int>()
+        val seen = HashSet<Int>()
+        val enough = { result.size >= count }
+        val take = { id: Int ->
+            if (seen.add(id)) {
+                val word = words[id]
+                if (word != null && accept(id, word)) {
+                    result.add(id)
+                }
+            }
+        }
+
+        // Three chars and more: exact similarity, most similar first.
+        if (name.length >= 3) {
+            (postings[name.gram(0, 3)] ?: IntArray(0))
+                .mapNotNull { id -> words[id]?.let { word -> id to similarity(word.name, name) } }
+                .shuffled(random)
+                .sortedByDescending { (_, similarity) -> similarity }
+                .forEach { (id, _) -> if (!enough()) take(id) }
+        }
+
+        // Two chars, then one: all those left are equally similar.
+        for (n in minOf(2, name.length) downTo 1) {
+            postings[name.gram(0, n)]?.sample(random, enough, take)
+        }
+
+        // Not similar at all.
+        ids.sample(random, enough, take)
+
+        return result
+    }
+}
\ No newline at end of file
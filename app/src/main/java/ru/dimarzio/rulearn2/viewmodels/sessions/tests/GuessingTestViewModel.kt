@@ -12,8 +12,8 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.models.WordRows
 import ru.dimarzio.rulearn2.utils.deviceVolume
-import ru.dimarzio.rulearn2.utils.whether
 import ru.dimarzio.rulearn2.viewmodels.ErrorHandler
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel
 import ru.dimarzio.rulearn2.viewmodels.sessions.tests.media.MediaFacade
@@ -71,26 +71,27 @@ class GuessingTestViewModel(private val handler: ErrorHandler) : ViewModel() {
     // Using templates is impossible because of possible recursion
     private operator fun Int.plus(list: List<Int>) = listOf(this) + list
 
+    // Rebuilt for a new version of the course and replaced as a whole, questions may be generated at once.
+    @Volatile
+    private var index: DistractorIndex? = null
+
     private fun generateTranslations(
         correctId: Int,
         correctName: String,
-        courseWords: Map<Int, Word>
-    ) = correctId
-        .plus(
-            courseWords
-                .entries
-                .shuffled()
-                .whether(PreferencesViewModel.settings.similarWords) {
-                    sortedBySimilarity2(correctName) { (_, word) -> word.name }
-                }
-                .whether(!PreferencesViewModel.settings.skippedWords) {
-                    filterNot { (_, word) -> word.skip }
-                }
-                .map { (id, _) -> id }
-        )
-        .distinct()
-        .take(6)
-        .shuffled()
+        courseWords: WordRows,
+        courseVersion: Int
+    ): List<Int> {
+        val index = index
+            ?.takeIf { index -> index.version == courseVersion }
+            ?: DistractorIndex(courseWords, courseVersion).also { index = it }
+
+        val similarBy = if (PreferencesViewModel.settings.similarWords) correctName else ""
+        val distractors = index.similar(similarBy, courseWords, 5) { id, word ->
+            id != correctId && (PreferencesViewModel.settings.skippedWords || !word.skip)
+        }
+
+        return correctId.plus(distractors).shuffled()
+    }
 
     fun answer(
         context: Context,
@@ -123,7 +124,7 @@ class GuessingTestViewModel(private val handler: ErrorHandler) : ViewModel() {
         )
     }
 
-    fun generateTranslations(id: Int, word: Word, courseWords: Map<Int, Word>) {
+    fun generateTranslations(id: Int, word: Word, courseWords: WordRows, courseVersion: Int) {
         viewModelScope.launch {
             loading = true
 
@@ -132,7 +133,8 @@ class GuessingTestViewModel(private val handler: ErrorHandler) : ViewModel() {
                     generateTranslations(
                         id,
                         word.name,
-                        courseWords
+                        courseWords,
+                        courseVersion
                     )
                 }
             }
@@ -14,6 +14,7 @@ import androidx.lifecycle.viewModelScope
 import ru.dimarzio.rulearn2.models.Word
 import ru.dimarzio.rulearn2.utils.deviceVolume
 import ru.dimarzio.rulearn2.utils.normalized
+import ru.dimarzio.rulearn2.utils.typingHint
 import ru.dimarzio.rulearn2.viewmodels.PreferencesViewModel
 import ru.dimarzio.rulearn2.viewmodels.sessions.tests.media.MediaFacade
 import vladis.luv.rulearn.Utils
@@ -30,6 +31,8 @@ class TypingTestViewModel : ViewModel() {
         private set
 
     private fun String.takeHint(correct: String): String {
+        typingHint(this, correct)?.let { hint -> return hint } // One pass, if every char is in the fold table.
+
         val match = foldRight(this) { c, acc ->
             if (correct.normalized().startsWith(acc.normalized())) {
                 return@foldRight acc
@@ -1,9 +1,16 @@
 package vladis.luv.rulearn;
 
+import static ru.dimarzio.rulearn2.utils.HintsKt.papasHint;
 import static ru.dimarzio.rulearn2.utils.PrimitivesKt.normalized;
 
 public class Utils {
     public static String getHint(String txtInput, String word) {
+        //за один проход, если все символы есть в таблице нормализации
+        String hint = papasHint(txtInput, word);
+        if (hint != null) {
+            return hint;
+        }
+
         String input = normalizeString(txtInput);
         String nword = normalizeString(word);
 
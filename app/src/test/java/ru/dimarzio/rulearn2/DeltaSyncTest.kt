@@ -0,0 +1,160 @@
+package ru.dimarzio.rulearn2
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import ru.dimarzio.rulearn2.application.Database.Mark
+import ru.dimarzio.rulearn2.viewmodels.network.DeltaSync
+import java.io.IOException
+
+class DeltaSyncTest {
+    private class Peer(
+        override val device: String,
+        val words: Map<String, List<Pair<Int, Long>>> // Course to id & accessed, which stands for modified too
+    ) : DeltaSync.Store {
+        val marks = mutableMapOf<Pair<String, String>, Mark>()
+        var received: Map<String, List<List<String>>>? = null
+        var receivedFrom: String? = null
+        var fallback = false
+        var failing = false
+
+        override val courses get() = words.keys.toList()
+
+        override fun getMark(peer: String, course: String) = marks[peer to course] ?: Mark(0, 0L)
+
+        override fun exportDelta(
+            course: String,
+            since: Mark,
+            onRow: (table: String, row: List<String>) -> Unit
+        ) {
+            check(!failing)
+
+            words.getValue(course)
+                .filter { (id, accessed) -> id > since.id || accessed > since.modified }
+                .forEach { (id, accessed) ->
+                    onRow(course, listOf(id.toString(), "word$id", "translation$id", "", "level"))
+                    onRow(course + "_stat", listOf(id.toString(), accessed.toString(), "0", "0", "10", "1.0"))
+                }
+        }
+
+        override fun onDelta(peer: String, tables: Sequence<Pair<String, Sequence<List<String>>>>) {
+            receivedFrom = peer
+            received = linkedMapOf<String, MutableList<List<String>>>().apply {
+                tables.forEach { (table, rows) -> getOrPut(table, ::mutableListOf).addAll(rows) }
+            }
+        }
+    }
+
+    // Delivers every message to the other side right away.
+    private class InMemoryTransport : DeltaSync.Transport {
+        lateinit var other: DeltaSync
+        var sent = 0
+        var bytes = 0
+
+        override fun send(message: ByteArray) {
+            sent++
+            bytes += message.size
+            other.onReceived(message)
+        }
+    }
+
+    private fun connect(puller: Peer, pulled: Peer): Pair<DeltaSync, InMemoryTransport> {
+        val toPulled = InMemoryTransport()
+        val toPuller = InMemoryTransport()
+
+        val pullerSync = DeltaSync(puller, toPulled).apply { onFallback = { puller.fallback = true } }
+        val pulledSync = DeltaSync(pulled, toPuller).apply { onFallback = { pulled.fallback = true } }
+
+        toPulled.other = pulledSync
+        toPuller.other = pullerSync
+
+        return pullerSync to toPuller
+    }
+
+    @Test
+    fun unknownPeer_getsEverything() {
+        val puller = Peer("a", emptyMap())
+        val pulled = Peer("b", mapOf("en" to listOf(1 to 10L, 2 to 20L), "de" to listOf(1 to 5L)))
+
+        val (sync, _) = connect(puller, pulled)
+        sync.pull()
+
+        assertEquals("b", puller.receivedFrom)
+        assertEquals(listOf("en", "en_stat", "de", "de_stat"), puller.received!!.keys.toList())
+        assertEquals(2, puller.received!!.getValue("en").size)
+        assertEquals(listOf("2", "20", "0", "0", "10", "1.0"), puller.received!!.getValue("en_stat")[1])
+        assertFalse(puller.fallback)
+    }
+
+    @Test
+    fun knownPeer_getsChangedRowsOnly() {
+        val puller = Peer("a", emptyMap())
+        val pulled = Peer("b", mapOf("en" to List(1000) { i -> i + 1 to i + 1L }))
+
+        val (fullSync, fullTransport) = connect(puller, pulled)
+        fullSync.pull()
+        val full = fullTransport.bytes
+
+        puller.marks["b" to "en"] = Mark(999, 999L)
+        val (sync, transport) = connect(puller, pulled)
+        sync.pull()
+
+        assertEquals(listOf(listOf("1000", "word1000", "translation1000", "", "level")), puller.received!!["en"])
+        assertTrue(transport.bytes * 10 < full)
+    }
+
+    @Test
+    fun nothingChanged_deltaIsEmpty() {
+        val puller = Peer("a", emptyMap())
+        val pulled = Peer("b", mapOf("en" to listOf(1 to 10L)))
+        puller.marks["b" to "en"] = Mark(1, 10L)
+
+        val (sync, transport) = connect(puller, pulled)
+        sync.pull()
+
+        assertEquals(emptyMap<String, List<List<String>>>(), puller.received)
+        assertEquals(2, transport.sent) // SUMM & DELT
+    }
+
+    @Test
+    fun failingPeer_fallsBackToFullFile() {
+        val puller = Peer("a", emptyMap())
+        val pulled = Peer("b", mapOf("en" to listOf(1 to 10L))).apply { failing = true }
+
+        val (sync, _) = connect(puller, pulled)
+        sync.pull()
+
+        assertNull(puller.received)
+        assertTrue(puller.fallback)
+        assertFalse(pulled.fallback)
+    }
+
+    @Test
+    fun failedFallback_isReported() {
+        var sync = byteArrayOf()
+        DeltaSync(Peer("a", emptyMap()), object : DeltaSync.Transport {
+            override fun send(message: ByteArray) {
+                sync = message
+            }
+        }).pull()
+
+        val disconnected = object : DeltaSync.Transport {
+            override fun send(message: ByteArray) = throw IOException("Disconnected.")
+        }
+        val errors = mutableListOf<Throwable>()
+        DeltaSync(Peer("b", mapOf("en" to listOf(1 to 10L))), disconnected).apply {
+            onFallback = {}
+            onError = { e -> errors += e }
+        }.onReceived(sync) // Neither SUMM nor FULL can be sent.
+
+        assertEquals(1, errors.size)
+    }
+
+    @Test
+    fun legacyPull_isNotMessage() {
+        assertFalse(DeltaSync.isMessage("PULL".toByteArray()))
+        assertTrue(DeltaSync.isMessage(DeltaSync.SYNC.toByteArray()))
+    }
+}
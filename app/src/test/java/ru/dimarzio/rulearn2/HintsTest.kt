@@ -0,0 +1,112 @@
+package ru.dimarzio.rulearn2
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import ru.dimarzio.rulearn2.utils.normalized
+import ru.dimarzio.rulearn2.utils.papasHint
+import ru.dimarzio.rulearn2.utils.typingHint
+import kotlin.random.Random
+
+class HintsTest {
+    // Utils.getHint before the one pass.
+    private fun papasReference(input: String, word: String): String {
+        val normalizedInput = input.normalized()
+        val normalizedWord = word.normalized()
+
+        var correct = ""
+        for (i in normalizedInput.length downTo 1) {
+            if (i <= normalizedWord.length && normalizedInput.take(i) == normalizedWord.take(i)) {
+                correct = normalizedInput.take(i)
+                break
+            }
+        }
+
+        var answer = ""
+        for (i in 0..word.length) {
+            answer = word.take(i)
+            if (correct == answer.normalized()) {
+                for (j in i..word.length) {
+                    answer = word.take(j)
+                    if (correct != answer.normalized()) {
+                        break
+                    }
+                }
+
+                break
+            }
+        }
+
+        return answer
+    }
+
+    // TypingTestViewModel.takeHint before the one pass.
+    private fun typingReference(input: String, word: String): String {
+        val match = input.foldRight(input) { c, acc ->
+            if (word.normalized().startsWith(acc.normalized())) {
+                return@foldRight acc
+            }
+            acc.substringBeforeLast(c)
+        }
+
+        return runCatching { word.take(match.length + 1) }.getOrDefault(match)
+    }
+
+    private val alphabet = (0x41..0x5A) + (0x61..0x7A) + (0xC0..0xFF) + (0x300..0x36F) +
+            (0x410..0x44F) + listOf(0x401, 0x451) + (0x621..0x64A) + (0x64B..0x652) + listOf(0x20, 0x20, 0x20)
+
+    // Words and inputs typed after them: a prefix, sometimes changed and followed by other chars.
+    private fun pairs(size: Int, random: Random = Random(42)) = List(size) {
+        fun string(length: Int) = String(CharArray(length) { alphabet[random.nextInt(alphabet.size)].toChar() })
+
+        val word = string(1 + random.nextInt(12))
+        val prefix = word.take(random.nextInt(word.length + 1)).let { prefix ->
+            when (random.nextInt(3)) {
+                0 -> prefix.uppercase()
+                1 -> prefix.normalized()
+                else -> prefix
+            }
+        }
+
+        word to prefix + string(random.nextInt(4))
+    }
+
+    @Test
+    fun papasHint_sameAsReference() {
+        var checked = 0
+        pairs(150_000).forEach { (word, input) ->
+            papasHint(input, word)?.let { hint ->
+                assertEquals("$input -> $word", papasReference(input, word), hint)
+                checked++
+            }
+        }
+
+        assertTrue("checked $checked", checked > 100_000)
+    }
+
+    @Test
+    fun typingHint_sameAsReference() {
+        var checked = 0
+        pairs(150_000, Random(7)).forEach { (word, input) ->
+            typingHint(input, word)?.let { hint ->
+                assertEquals("$input -> $word", typingReference(input, word), hint)
+                checked++
+            }
+        }
+
+        assertTrue("checked $checked", checked > 100_000)
+    }
+
+    @Test
+    fun sameAsReference_onWords() {
+        val pairs = listOf(
+            "мама" to "ма", "Ёжик" to "еж", "crème" to "Creme", "مَرْحَبًا" to "مرح", "مَرْحَبًا" to "مرخ",
+            "naïve" to "naive ", " word" to "wo", "word" to "", "" to "abc", "x́y" to "x"
+        )
+
+        pairs.forEach { (word, input) ->
+            papasHint(input, word)?.let { hint -> assertEquals(papasReference(input, word), hint) }
+            typingHint(input, word)?.let { hint -> assertEquals(typingReference(input, word), hint) }
+        }
+    }
+}
\ No newline at end of file
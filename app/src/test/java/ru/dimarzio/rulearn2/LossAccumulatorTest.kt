@@ -0,0 +1,80 @@
+package ru.dimarzio.rulearn2
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.tflite.Loss
+import ru.dimarzio.rulearn2.tflite.LossAccumulator
+import kotlin.math.abs
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+class LossAccumulatorTest {
+    private val random = Random(42)
+
+    private fun word(): Word {
+        val repetitions = random.nextInt(0, 20)
+        return Word("").copy(
+            repetitions = repetitions,
+            correctAnswers = random.nextInt(0, repetitions + 1),
+            successRate = random.nextFloat()
+        )
+    }
+
+    // Loss of the words from scratch.
+    private fun recompute(words: Collection<Word>): Loss {
+        val errors = words.map { word -> word.ratio - word.successRate }
+        val mean = words.sumOf(Word::ratio) / words.size
+        val ssTot = words.sumOf { word -> (word.ratio - mean) * (word.ratio - mean) }
+        val ssRes = errors.sumOf { error -> error * error }
+
+        return Loss(
+            mae = errors.sumOf(::abs) / words.size,
+            rmse = sqrt(ssRes / words.size),
+            r2 = if (ssTot > 1e-9) 1.0 - ssRes / ssTot else 1.0
+        )
+    }
+
+    private fun assertLoss(expected: Loss, actual: Loss) {
+        assertEquals(expected.mae, actual.mae, 1e-9)
+        assertEquals(expected.rmse, actual.rmse, 1e-9)
+        assertEquals(expected.r2, actual.r2, 1e-6)
+    }
+
+    @Test
+    fun runningSums_matchRecompute() {
+        val words = (1..500).associateWith { word() }.toMutableMap()
+        val accumulator = LossAccumulator()
+        words.values.forEach(accumulator::add)
+
+        repeat(10_000) { step ->
+            val id = words.keys.random(random)
+            if (step % 5 == 0) {
+                accumulator.remove(words.remove(id)!!)
+                val added = word()
+                words[1000 + step] = added
+                accumulator.add(added)
+            } else {
+                val new = word()
+                accumulator.replace(words.getValue(id), new)
+                words[id] = new
+            }
+
+            if (step % 1000 == 0) {
+                assertLoss(recompute(words.values), accumulator.loss)
+            }
+        }
+
+        assertLoss(recompute(words.values), accumulator.loss)
+    }
+
+    @Test
+    fun allRemoved_isZero() {
+        val words = List(10) { word() }
+        val accumulator = LossAccumulator()
+        words.forEach(accumulator::add)
+        words.forEach(accumulator::remove)
+
+        assertEquals(Loss(0.0, 0.0, 0.0), accumulator.loss)
+    }
+}
\ No newline at end of file
@@ -0,0 +1,43 @@
+package ru.dimarzio.rulearn2
+
+import org.apache.commons.lang3.StringUtils
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import ru.dimarzio.rulearn2.utils.normalized
+import java.text.Normalizer
+import kotlin.random.Random
+
+class NormalizedTest {
+    // String.normalized() before the fold table.
+    private fun String.reference(): String = StringUtils.stripAccents(
+        Normalizer
+            .normalize(this, Normalizer.Form.NFKD)
+            .replace("\\p{Mn}+".toRegex(), "")
+            .trim()
+            .lowercase()
+    )
+
+    private val alphabet = (0x20..0x7E) + (0xA0..0x24F) + (0x300..0x36F) + (0x400..0x52F) +
+            (0x600..0x6FF) + (0x1E00..0x1EFF) + (0x2000..0x206F) + (0x370..0x3FF) + (0x4E00..0x4E20)
+
+    private fun corpus(size: Int, random: Random = Random(42)) = List(size) {
+        String(CharArray(1 + random.nextInt(16)) { alphabet[random.nextInt(alphabet.size)].toChar() })
+    }
+
+    @Test
+    fun sameAsReference_onRandomStrings() {
+        corpus(200_000).forEach { string ->
+            assertEquals(string, string.reference(), string.normalized())
+        }
+    }
+
+    @Test
+    fun sameAsReference_onWords() {
+        val words = listOf(
+            "  Crème Brûlée ", "Ёжик", "ЙОГУРТ", "Straße", "Łódź", "İstanbul", "ΟΔΟΣ", "ǄEM",
+            " naïve ", "مَرْحَبًا", "Việt Nam", "ﬁnal", "x́", "́", "", " ", "hello"
+        )
+
+        words.forEach { word -> assertEquals(word, word.reference(), word.normalized()) }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package ru.dimarzio.rulearn2
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import ru.dimarzio.rulearn2.models.CourseStore
+import ru.dimarzio.rulearn2.models.Word
+import ru.dimarzio.rulearn2.viewmodels.sessions.LearnNewWordsImp
+import ru.dimarzio.rulearn2.viewmodels.sessions.RandomSet
+import ru.dimarzio.rulearn2.viewmodels.sessions.ReviewImp
+import ru.dimarzio.rulearn2.viewmodels.sessions.WordAdapter
+import ru.dimarzio.rulearn2.viewmodels.sessions.difficult.DifficultWordsImp
+import kotlin.random.Random
+
+class SelectionTest {
+    private val draws = 100_000
+
+    // Chi-squared of the counts against equal ones; 0.1% critical values for up to 30 degrees of freedom.
+    private fun assertUniform(counts: Map<Int, Int>, expected: Collection<Int>) {
+        assertEquals(expected.toSet(), counts.keys)
+
+        val mean = counts.values.sum().toDouble() / counts.size
+        val chiSquared = counts.values.sumOf { count -> (count - mean) * (count - mean) / mean }
+        val critical = doubleArrayOf(
+            10.83, 13.82, 16.27, 18.47, 20.52, 22.46, 24.32, 26.12, 27.88, 29.59,
+            31.26, 32.91, 34.53, 36.12, 37.70, 39.25, 40.79, 42.31, 43.82, 45.31,
+            46.80, 48.27, 49.73, 51.18, 52.62, 54.05, 55.48, 56.89, 58.30, 59.70
+        )
+
+        assertTrue("chi-squared $chiSquared", chiSquared < critical[counts.size - 2])
+    }
+
+    private fun word(rating: Int, difficult: Boolean = false) = Word("").copy(
+        rating = rating,
+        difficult = difficult
+    )
+
+    @Test
+    fun randomSet_isUniformAfterRemovals() {
+        val set = RandomSet(1..30)
+        listOf(3, 30, 17, 1).forEach(set::remove)
+
+        val random = Random(1)
+        val counts = List(draws) { set.random(random)!! }.groupingBy { it }.eachCount()
+
+        assertUniform(counts, (1..30) - listOf(3, 30, 17, 1))
+    }
+
+    @Test
+    fun randomSet_exceptIsUniformOverTheRest() {
+        val set = RandomSet(1..10)
+        val random = Random(2)
+
+        for (except in listOf(1, 5, 10)) {
+            val counts = List(draws) { set.random(except, random)!! }.groupingBy { it }.eachCount()
+            assertUniform(counts, (1..10) - except)
+        }
+
+        assertEquals(4, RandomSet(listOf(4)).random(4))
+    }
+
+    @Test
+    fun randomSet_keepsPositionsOnSwapRemove() {
+        val set = RandomSet(1..5)
+
+        assertTrue(set.remove(2))
+        assertTrue(set.remove(5))
+        assertTrue(!set.remove(5))
+        assertTrue(set.add(2))
+
+        assertEquals(4, set.size)
+        assertEquals(setOf(1, 2, 3, 4), List(1000) { set.random()!! }.toSet())
+    }
+
+    @Test
+    fun learnNewWords_nextIsUniformAmongOthers() {
+        val words = (1..20).associateWith { id -> word(rating = id % 10) }
+        val imp = LearnNewWordsImp(CourseStore.of(words), null, words.size, Random(3))
+
+        imp.first()
+        imp.emend(WordAdapter(7, word(rating = 10))) // Learned
+
+        val counts = HashMap<Int, Int>()
+        repeat(draws) {
+            val previous = imp.current()!!.getId()
+            imp.next()
+            val id = imp.current()!!.getId()
+
+            assertNotEquals(previous, id)
+            counts.merge(id, 1, Int::plus)
+        }
+
+        assertUniform(counts, (1..20) - 7)
+    }
+
+    @Test
+    fun learnNewWords_countersFollowChanges() {
+        val words = (1..4).associateWith { word(rating = 5) }
+        val imp = LearnNewWordsImp(CourseStore.of(words), null, words.size)
+
+        assertEquals(50f, imp.getProgress())
+
+        imp.emend(WordAdapter(1, word(rating = 10)))
+        imp.neglect(2)
+
+        assertEquals(setOf(1), imp.getTraversed().keys)
+        assertEquals(20 * 100f / 30, imp.getProgress(), 1e-4f)
+
+        listOf(3, 4).forEach { id -> imp.emend(WordAdapter(id, word(rating = 10))) }
+        assertTrue(imp.isDone())
+    }
+
+    @Test
+    fun difficultWords_nextIsUniformAmongDifficult() {
+        val words = (1..12).associateWith { word(rating = 12, difficult = true) }
+        val imp = DifficultWordsImp(CourseStore.of(words), null, words.size, Random(4))
+
+        imp.first()
+        val counts = List(draws) { imp.next(); imp.current()!!.getId() }.groupingBy { it }.eachCount()
+
+        assertUniform(counts, 1..12)
+        assertEquals(0f, imp.getProgress())
+    }
+
+    @Test
+    fun review_queuesWordsAgainWhenDue() {
+        val hour = 3_600_000L
+        var now = 100 * hour // Fake clock, moved by hand
+        val words = (1..2).associateWith { Word(accessed = now - 2 * hour, skip = false, rating = 10, successRate = 1f) }
+        val imp = ReviewImp(CourseStore.of(words), null, words.size) { now }
+
+        imp.emend(WordAdapter(1, Word(accessed = now, skip = false, rating = 10, successRate = 1f))) // Due in an hour
+        now += hour / 2
+        imp.emend(WordAdapter(2, Word(accessed = now, skip = false, rating = 10, successRate = 1f)))
+
+        assertTrue(imp.isDone())
+        assertEquals(setOf(1, 2), imp.getTraversed().keys)
+
+        now += hour / 2
+        assertFalse(imp.isDone())
+
+        imp.next()
+        assertEquals(1, imp.current()!!.getId())
+        assertEquals(setOf(2), imp.getTraversed().keys)
+        assertEquals(50f, imp.getProgress())
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package ru.dimarzio.rulearn2
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import ru.dimarzio.rulearn2.tflite.Features
+import ru.dimarzio.rulearn2.tflite.FeaturesProvider
+import ru.dimarzio.rulearn2.tflite.Trainer
+import java.io.File
+import java.nio.ByteBuffer
+
+class TrainerTest {
+    // Records the signatures run, predictions never improve.
+    private class Model : Trainer.Model {
+        val signatures = mutableListOf<String>()
+
+        override fun predict(contexts: List<Features>) = FloatArray(contexts.size) { 0.5f }
+
+        override fun run(signature: String, inputs: Map<String, Any>) {
+            signatures += signature
+        }
+    }
+
+    private object Provider : FeaturesProvider {
+        override val size = 1
+
+        override fun provide(features: Features, into: ByteBuffer) {
+            into.putFloat(features.rating.toFloat())
+        }
+    }
+
+    private val checkpoint = File("checkpoint")
+
+    private fun words(count: Int) = List(count) { id -> Features(id, 2, id % 3, 10, 0L, null, 0f) }
+
+    @Test
+    fun smallCourse_savesLastWeights() {
+        val model = Model()
+        Trainer(model, Provider).train(words(50), checkpoint) {}
+
+        assertFalse("restore" in model.signatures)
+        assertEquals("save", model.signatures.last())
+        assertEquals(1, model.signatures.count { it == "save" })
+        assertEquals(Trainer.PATIENCE * 2, model.signatures.count { it == "train" }) // Two batches per epoch
+    }
+
+    @Test
+    fun largeCourse_restoresBestWeights() {
+        val model = Model()
+        Trainer(model, Provider).train(words(200), checkpoint) {}
+
+        assertEquals("save", model.signatures.first())
+        assertEquals("restore", model.signatures.last())
+    }
+
+    @Test
+    fun cancelled_restoresBestWeights() {
+        val model = Model()
+        val trainer = Trainer(model, Provider)
+
+        assertThrows(IllegalStateException::class.java) {
+            trainer.train(words(200), checkpoint) { error("Cancelled.") }
+        }
+        assertEquals("restore", model.signatures.last())
+    }
+}
\ No newline at end of file